@@ -0,0 +1,193 @@
+package com.github.webetc.livedata;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AsyncLiveObserver implements LiveObserver, LiveSubscription {
+
+    public enum OverflowAction {
+        Disconnect,     // remove the observer and send it a final Error
+        Resync          // drop its backlog, send an Error and then a fresh Load
+    }
+
+
+    private static final int DrainBatch = 64;   // responses per executor task before yielding
+
+    private final LiveObserver observer;
+    private final LiveTable table;
+    private final Executor executor;
+    private final int mailboxSize;
+    private final OverflowAction overflowAction;
+    private final Deque<LiveResponse> mailbox = new ArrayDeque<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();  // delivered by drain, never alongside a response
+    private boolean resyncing = false;
+    private volatile boolean closed = false;
+
+
+    AsyncLiveObserver(LiveObserver observer, LiveTable table, Executor executor,
+                      int mailboxSize, OverflowAction overflowAction) {
+        if (mailboxSize < 1)
+            throw new IllegalArgumentException("Mailbox size must be at least 1");
+        this.observer = observer;
+        this.table = table;
+        this.executor = executor;
+        this.mailboxSize = mailboxSize;
+        this.overflowAction = overflowAction;
+
+        // Plain observers take everything, subscribers signal their own demand
+        if (LiveSubscriber.class.isInstance(observer))
+            ((LiveSubscriber) observer).onSubscribe(this);
+        else
+            demand.set(Long.MAX_VALUE);
+    }
+
+
+    public LiveObserver getObserver() {
+        return observer;
+    }
+
+
+    @Override
+    public void send(LiveResponse response) {
+        if (closed)
+            return;
+
+        boolean overflow = false;
+        synchronized (mailbox) {
+            if (resyncing) {
+                // Everything before the fresh load is superseded by it
+                if (!LiveResponse.Load.equals(response.getAction()))
+                    return;
+                resyncing = false;
+            }
+
+            if (mailbox.size() >= mailboxSize) {
+                overflow = true;
+                overflowCount.incrementAndGet();
+                mailbox.clear();
+                mailbox.add(new LiveResponse(LiveResponse.Error, table.getSchemaName(), table.getTableName()));
+                if (overflowAction == OverflowAction.Resync)
+                    resyncing = true;
+                else
+                    closed = true;
+            } else {
+                mailbox.add(response);
+            }
+        }
+
+        if (overflow) {
+            if (overflowAction == OverflowAction.Resync)
+                table.reload(this);
+            else
+                table.removeWatcher(this);
+        }
+
+        schedule();
+    }
+
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            // Bad demand ends the subscription with an error rather than throwing at the caller
+            if (LiveSubscriber.class.isInstance(observer))
+                failure.compareAndSet(null, new IllegalArgumentException("Demand must be positive"));
+            cancel();
+            schedule();
+            return;
+        }
+
+        long current;
+        long next;
+        do {
+            current = demand.get();
+            next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!demand.compareAndSet(current, next));
+
+        schedule();
+    }
+
+
+    @Override
+    public void cancel() {
+        close();
+        table.removeWatcher(this);
+    }
+
+
+    void close() {
+        closed = true;
+        synchronized (mailbox) {
+            mailbox.clear();
+        }
+    }
+
+
+    public int getMailboxDepth() {
+        synchronized (mailbox) {
+            return mailbox.size();
+        }
+    }
+
+
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+
+    private void schedule() {
+        if ((demand.get() > 0 || failure.get() != null) && scheduled.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+
+    private void drain() {
+        int delivered = 0;
+        try {
+            while (delivered < DrainBatch) {
+                // An error goes out after the response in flight and nothing follows it
+                Throwable error = failure.getAndSet(null);
+                if (error != null) {
+                    try {
+                        ((LiveSubscriber) observer).onError(error);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                    return;
+                }
+                if (demand.get() <= 0)
+                    break;
+
+                LiveResponse response;
+                synchronized (mailbox) {
+                    response = mailbox.pollFirst();
+                }
+                if (response == null)
+                    break;
+
+                if (demand.get() != Long.MAX_VALUE)
+                    demand.decrementAndGet();
+                delivered++;
+
+                try {
+                    observer.send(response);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+
+        // Pick up anything that arrived after the last poll
+        if (failure.get() != null || getMailboxDepth() > 0)
+            schedule();
+    }
+}
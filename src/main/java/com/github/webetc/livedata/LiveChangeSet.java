@@ -0,0 +1,151 @@
+package com.github.webetc.livedata;
+
+import java.util.*;
+
+class LiveChangeSet {
+
+    private static class Change {
+        final String action;                                        // Modify or Delete
+        final boolean inserted;                                     // row first appeared in this transaction
+        final Map<String, String> values = new LinkedHashMap<>();   // lower case column, last write wins
+        Set<String> changed = new HashSet<>();                      // null once any write changed unknown columns
+
+        Change(String action, boolean inserted) {
+            this.action = action;
+            this.inserted = inserted;
+        }
+    }
+
+
+    private static class TableChanges {
+        final String schema;
+        final String table;
+        final String idColumn;
+        final Map<String, String> names = new HashMap<>();         // lower case to the name first seen
+        final Map<String, Change> rows = new LinkedHashMap<>();
+
+        TableChanges(String schema, String table, String idColumn) {
+            this.schema = schema;
+            this.table = table;
+            this.idColumn = idColumn;
+        }
+    }
+
+
+    private final Map<LiveTableKey, TableChanges> tables = new LinkedHashMap<>();
+    private int merged = 0;
+
+
+    boolean add(LiveResponse response, boolean inserted) {
+        // Only id keyed rows can be merged, anything else is kept as it is by the caller
+        boolean delete = LiveResponse.Delete.equals(response.getAction());
+        if ((!delete && !LiveResponse.Modify.equals(response.getAction())) || response.getColumns() == null)
+            return false;
+        if (response.getRecords() == null)
+            return true;
+
+        List<String> columns = response.getColumns();
+        int idCol = response.getIdColumnIndex();
+        TableChanges changes = tables.computeIfAbsent(LiveTableKey.lookup(response.getSchema(), response.getTable()),
+                k -> new TableChanges(response.getSchema(), response.getTable(), columns.get(idCol)));
+        String[] keys = new String[columns.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = columns.get(i).toLowerCase();
+            changes.names.putIfAbsent(keys[i], columns.get(i));
+        }
+
+        for (List<String> record : response.getRecords()) {
+            String id = record.get(idCol);
+            Change existing = changes.rows.get(id);
+            if (existing != null)
+                merged++;
+
+            if (delete) {
+                // A row inserted and deleted here was never seen so it needs no delete either
+                if (existing != null && existing.inserted && LiveResponse.Modify.equals(existing.action))
+                    changes.rows.remove(id);
+                else
+                    changes.rows.put(id, new Change(LiveResponse.Delete, false));
+                continue;
+            }
+
+            Change change = existing;
+            if (change == null || LiveResponse.Delete.equals(change.action)) {
+                // Deleted then inserted again goes out as the new row
+                change = new Change(LiveResponse.Modify, inserted && existing == null);
+                changes.rows.put(id, change);
+            }
+            for (int i = 0; i < keys.length; i++)
+                change.values.put(keys[i], record.get(i));
+            if (change.changed != null && response.getChangedColumns() != null && !inserted)
+                change.changed.addAll(response.getChangedColumns());
+            else
+                change.changed = null;
+        }
+        return true;
+    }
+
+
+    List<LiveResponse> getModifications() {
+        // One response per table and column set, rows with different columns can't share one
+        List<LiveResponse> responses = new ArrayList<>();
+        for (TableChanges changes : tables.values()) {
+            String idKey = changes.idColumn.toLowerCase();
+            Map<Set<String>, LiveResponse> byColumns = new LinkedHashMap<>();
+            for (Map.Entry<String, Change> entry : changes.rows.entrySet()) {
+                Change change = entry.getValue();
+                if (!LiveResponse.Modify.equals(change.action))
+                    continue;
+
+                LiveResponse response = byColumns.get(change.values.keySet());
+                if (response == null) {
+                    response = new LiveResponse(LiveResponse.Modify, changes.schema, changes.table);
+                    response.addColumn(changes.idColumn);
+                    for (String key : change.values.keySet()) {
+                        if (!key.equals(idKey))
+                            response.addColumn(changes.names.get(key));
+                    }
+                    response.setChangedColumns(new HashSet<>());
+                    byColumns.put(new HashSet<>(change.values.keySet()), response);
+                }
+
+                List<String> row = new ArrayList<>(response.getColumns().size());
+                row.add(entry.getKey());
+                for (int i = 1; i < response.getColumns().size(); i++)
+                    row.add(change.values.get(response.getColumns().get(i).toLowerCase()));
+                response.addRecord(row);
+
+                if (response.getChangedColumns() != null && change.changed != null)
+                    response.getChangedColumns().addAll(change.changed);
+                else
+                    response.setChangedColumns(null);
+            }
+            responses.addAll(byColumns.values());
+        }
+        return responses;
+    }
+
+
+    List<LiveResponse> getDeletes() {
+        List<LiveResponse> responses = new ArrayList<>();
+        for (TableChanges changes : tables.values()) {
+            LiveResponse response = null;
+            for (Map.Entry<String, Change> entry : changes.rows.entrySet()) {
+                if (!LiveResponse.Delete.equals(entry.getValue().action))
+                    continue;
+                if (response == null) {
+                    response = new LiveResponse(LiveResponse.Delete, changes.schema, changes.table);
+                    response.addColumn(changes.idColumn);
+                    responses.add(response);
+                }
+                response.addRecord(new ArrayList<>(Collections.singletonList(entry.getKey())));
+            }
+        }
+        return responses;
+    }
+
+
+    int getMergedCount() {
+        return merged;
+    }
+}
@@ -0,0 +1,356 @@
+package com.github.webetc.livedata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class LiveColumnBatch {
+
+    public enum Type {
+        Long,
+        Int,
+        Double,
+        Bytes,
+        String      // dictionary encoded while it has few distinct values
+    }
+
+
+    public static abstract class Vector {
+        private long[] nulls = new long[1];
+        protected int size = 0;
+
+        public abstract Type getType();
+
+        public abstract String getString(int row);
+
+        public void appendLong(long value) {
+            throw new IllegalStateException(getType() + " column can't hold a long");
+        }
+
+        public void appendInt(int value) {
+            throw new IllegalStateException(getType() + " column can't hold an int");
+        }
+
+        public void appendDouble(double value) {
+            throw new IllegalStateException(getType() + " column can't hold a double");
+        }
+
+        public void appendBytes(byte[] value) {
+            throw new IllegalStateException(getType() + " column can't hold bytes");
+        }
+
+        public void appendString(String value) {
+            throw new IllegalStateException(getType() + " column can't hold a string");
+        }
+
+        public void appendNull() {
+            int word = size >>> 6;
+            if (word >= nulls.length)
+                nulls = Arrays.copyOf(nulls, Math.max(nulls.length * 2, word + 1));
+            nulls[word] |= 1L << (size & 63);
+            grow();
+            size++;
+        }
+
+        public boolean isNull(int row) {
+            int word = row >>> 6;
+            return word < nulls.length && (nulls[word] & (1L << (row & 63))) != 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        protected abstract void grow();
+    }
+
+
+    public static class LongVector extends Vector {
+        private long[] values = new long[16];
+
+        @Override
+        public Type getType() {
+            return Type.Long;
+        }
+
+        @Override
+        public void appendLong(long value) {
+            grow();
+            values[size++] = value;
+        }
+
+        public long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        public String getString(int row) {
+            return isNull(row) ? null : Long.toString(values[row]);
+        }
+
+        @Override
+        protected void grow() {
+            if (size == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+        }
+    }
+
+
+    public static class IntVector extends Vector {
+        private int[] values = new int[16];
+
+        @Override
+        public Type getType() {
+            return Type.Int;
+        }
+
+        @Override
+        public void appendInt(int value) {
+            grow();
+            values[size++] = value;
+        }
+
+        public int getInt(int row) {
+            return values[row];
+        }
+
+        @Override
+        public String getString(int row) {
+            return isNull(row) ? null : Integer.toString(values[row]);
+        }
+
+        @Override
+        protected void grow() {
+            if (size == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+        }
+    }
+
+
+    public static class DoubleVector extends Vector {
+        private double[] values = new double[16];
+
+        @Override
+        public Type getType() {
+            return Type.Double;
+        }
+
+        @Override
+        public void appendDouble(double value) {
+            grow();
+            values[size++] = value;
+        }
+
+        public double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        public String getString(int row) {
+            return isNull(row) ? null : Double.toString(values[row]);
+        }
+
+        @Override
+        protected void grow() {
+            if (size == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+        }
+    }
+
+
+    public static class BytesVector extends Vector {
+        private byte[][] values = new byte[16][];
+
+        @Override
+        public Type getType() {
+            return Type.Bytes;
+        }
+
+        @Override
+        public void appendBytes(byte[] value) {
+            if (value == null) {
+                appendNull();
+                return;
+            }
+            grow();
+            values[size++] = value;
+        }
+
+        public byte[] getBytes(int row) {
+            return values[row];
+        }
+
+        @Override
+        public String getString(int row) {
+            return isNull(row) ? null : new String(values[row], StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void grow() {
+            if (size == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+        }
+    }
+
+
+    public static class DictionaryVector extends Vector {
+        public static final int MaxDictionarySize = 256;   // distinct values before falling back to plain strings
+
+        private Map<String, Integer> codes = new HashMap<>();
+        private List<String> dictionary = new ArrayList<>();
+        private int[] values = new int[16];
+        private String[] plain = null;      // set once there are too many distinct values to be worth encoding
+
+        @Override
+        public Type getType() {
+            return Type.String;
+        }
+
+        @Override
+        public void appendString(String value) {
+            if (value == null) {
+                appendNull();
+                return;
+            }
+            if (plain == null) {
+                Integer code = codes.get(value);
+                if (code == null && dictionary.size() < MaxDictionarySize) {
+                    code = dictionary.size();
+                    dictionary.add(value);
+                    codes.put(value, code);
+                } else if (code == null) {
+                    decode();
+                }
+                if (code != null) {
+                    grow();
+                    values[size++] = code;
+                    return;
+                }
+            }
+            grow();
+            plain[size++] = value;
+        }
+
+        public boolean isEncoded() {
+            return plain == null;
+        }
+
+        public int getCode(int row) {
+            if (plain != null)
+                throw new IllegalStateException("String column is no longer dictionary encoded");
+            return values[row];
+        }
+
+        public List<String> getDictionary() {
+            return plain == null ? Collections.unmodifiableList(dictionary) : Collections.emptyList();
+        }
+
+        @Override
+        public String getString(int row) {
+            if (isNull(row))
+                return null;
+            return plain != null ? plain[row] : dictionary.get(values[row]);
+        }
+
+        @Override
+        protected void grow() {
+            if (plain != null) {
+                if (size == plain.length)
+                    plain = Arrays.copyOf(plain, plain.length * 2);
+            } else if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+        }
+
+        private void decode() {
+            // High cardinality text costs more with a dictionary than without
+            plain = new String[values.length];
+            for (int row = 0; row < size; row++) {
+                if (!isNull(row))
+                    plain[row] = dictionary.get(values[row]);
+            }
+            codes = null;
+            dictionary = null;
+            values = null;
+        }
+    }
+
+
+    private final Vector[] vectors;
+    private int rows = 0;
+
+
+    public LiveColumnBatch(Type... types) {
+        vectors = new Vector[types.length];
+        for (int i = 0; i < types.length; i++)
+            vectors[i] = createVector(types[i]);
+    }
+
+
+    public Vector getVector(int column) {
+        return vectors[column];
+    }
+
+
+    public int getColumnCount() {
+        return vectors.length;
+    }
+
+
+    public int size() {
+        return rows;
+    }
+
+
+    public void endRow() {
+        // Every vector must have had exactly one value appended for the row
+        rows++;
+        for (Vector vector : vectors) {
+            if (vector.size() != rows)
+                throw new IllegalStateException("Column batch row " + (rows - 1) + " is incomplete");
+        }
+    }
+
+
+    public List<List<String>> rows() {
+        // Read only row view for consumers of LiveResponse.getRecords, strings are made on access
+        return new AbstractList<List<String>>() {
+            @Override
+            public List<String> get(int row) {
+                if (row < 0 || row >= rows)
+                    throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+                return new AbstractList<String>() {
+                    @Override
+                    public String get(int column) {
+                        return vectors[column].getString(row);
+                    }
+
+                    @Override
+                    public int size() {
+                        return vectors.length;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        };
+    }
+
+
+    private static Vector createVector(Type type) {
+        switch (type) {
+            case Long:
+                return new LongVector();
+            case Int:
+                return new IntVector();
+            case Double:
+                return new DoubleVector();
+            case Bytes:
+                return new BytesVector();
+            default:
+                return new DictionaryVector();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.webetc.livedata;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+class LiveConstraintBatcher {
+
+    private static class BatchKey {
+        final LiveTableKey table;
+        final String keyColumn;
+
+        BatchKey(LiveTableKey table, String keyColumn) {
+            this.table = table;
+            this.keyColumn = keyColumn;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * table.hashCode() + keyColumn.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!BatchKey.class.isInstance(o))
+                return false;
+            BatchKey other = (BatchKey) o;
+            return table.equals(other.table) && keyColumn.equals(other.keyColumn);
+        }
+    }
+
+
+    private static class Batch implements LiveObserver {
+        final BatchKey batchKey;
+        final Map<String, Set<LiveKeyCollection>> requesters = new LinkedHashMap<>();
+
+        Batch(BatchKey batchKey) {
+            this.batchKey = batchKey;
+        }
+
+        @Override
+        public void send(LiveResponse response) {
+            if (response.getRecords() == null || response.getColumns() == null) {
+                // Error or empty result, every requester gets it as is
+                Set<LiveKeyCollection> all = new LinkedHashSet<>();
+                for (Set<LiveKeyCollection> collections : requesters.values())
+                    all.addAll(collections);
+                for (LiveKeyCollection collection : all)
+                    collection.send(response);
+                return;
+            }
+
+            int keyColIndex = -1;
+            for (int i = 0; i < response.getColumns().size(); i++) {
+                if (batchKey.keyColumn.equalsIgnoreCase(response.getColumns().get(i)))
+                    keyColIndex = i;
+            }
+            if (keyColIndex < 0)
+                return;
+
+            // Route each row back to the collections that asked for its key
+            Map<LiveKeyCollection, LiveResponse> routed = new LinkedHashMap<>();
+            for (List<String> row : response.getRecords()) {
+                Set<LiveKeyCollection> collections = requesters.get(row.get(keyColIndex));
+                if (collections == null)
+                    continue;
+                for (LiveKeyCollection collection : collections) {
+                    LiveResponse part = routed.get(collection);
+                    if (part == null) {
+                        part = new LiveResponse(response.getAction(), response.getSchema(), response.getTable());
+                        part.setIdColumnIndex(response.getIdColumnIndex());
+                        part.setColumns(response.getColumns());
+                        routed.put(collection, part);
+                    }
+                    part.addRecord(row);
+                }
+            }
+
+            for (Map.Entry<LiveKeyCollection, LiveResponse> entry : routed.entrySet())
+                entry.getKey().send(entry.getValue());
+        }
+    }
+
+
+    private final LiveDatabase database;
+    private final ScheduledExecutorService scheduler;
+    private final Map<BatchKey, Batch> batches = new HashMap<>();
+    private volatile long window;
+    private volatile int maxKeys;
+
+
+    LiveConstraintBatcher(LiveDatabase database, long window, int maxKeys) {
+        this.database = database;
+        this.window = window;
+        this.maxKeys = maxKeys;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "LiveDatabase-constraints");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    void add(LiveKeyCollection collection, LiveTableKey table, String keyColumn, Collection<String> keys) {
+        BatchKey batchKey = new BatchKey(table, keyColumn);
+        Batch ready = null;
+
+        synchronized (batches) {
+            Batch batch = batches.get(batchKey);
+            boolean created = batch == null;
+            if (created) {
+                batch = new Batch(batchKey);
+                batches.put(batchKey, batch);
+            }
+            for (String key : keys)
+                batch.requesters.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(collection);
+
+            if (window <= 0 || batch.requesters.size() >= maxKeys) {
+                batches.remove(batchKey);
+                ready = batch;
+            } else if (created) {
+                Batch scheduled = batch;
+                scheduler.schedule(() -> flush(scheduled), window, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (ready != null)
+            load(ready);
+    }
+
+
+    private void flush(Batch batch) {
+        // A batch already sent at maxKeys leaves its timer behind, which must not cut the next batch short
+        synchronized (batches) {
+            if (batches.get(batch.batchKey) != batch)
+                return;
+            batches.remove(batch.batchKey);
+        }
+        load(batch);
+    }
+
+
+    private void load(Batch batch) {
+        database.add(LiveDatabase.LiveEvent.create(
+                batch.batchKey.table.getSchema(),
+                batch.batchKey.table.getTable(),
+                LivePredicate.in(batch.batchKey.keyColumn, batch.requesters.keySet()),
+                batch));
+    }
+
+
+    long getWindow() {
+        return window;
+    }
+
+
+    void setWindow(long window) {
+        this.window = window;
+    }
+
+
+    int getMaxKeys() {
+        return maxKeys;
+    }
+
+
+    void setMaxKeys(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+
+    void close() {
+        scheduler.shutdownNow();
+    }
+}
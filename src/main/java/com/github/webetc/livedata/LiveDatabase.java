@@ -1,9 +1,11 @@
 package com.github.webetc.livedata;
 
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public abstract class LiveDatabase {
 
@@ -12,31 +14,74 @@ public abstract class LiveDatabase {
             return new LiveEventRequest(schema, table, null, observer);
         }
 
-        public static LiveEvent create(String schema, String table, String where, LiveObserver observer) {
+        public static LiveEvent create(String schema, String table, LivePredicate where, LiveObserver observer) {
             return new LiveEventRequest(schema, table, where, observer);
         }
 
+        public static LiveEvent create(String schema, String table, LivePredicate where,
+                                       List<String> columns, LiveObserver observer) {
+            return new LiveEventRequest(schema, table, where, columns, observer);
+        }
+
         public static LiveEvent create(Collection<LiveResponse> responses) {
             return new LiveEventResponse(responses);
         }
+
+        public static LiveEvent resume(String schema, String table, long sequence, LiveObserver observer) {
+            return new LiveEventResume(schema, table, sequence, observer);
+        }
     }
 
-    private static class LiveEventRequest extends LiveEvent {
+    static class LiveEventRequest extends LiveEvent {
 
         String schema;
         String table;
-        String where;
-        LiveObserver observer;
+        LivePredicate where;
+        List<String> columns;       // null selects every column
+        LoadKey loadKey;
+        List<LiveObserver> observers = new CopyOnWriteArrayList<>();
 
-        LiveEventRequest(String schema, String table, String where, LiveObserver observer) {
+        LiveEventRequest(String schema, String table, LivePredicate where, LiveObserver observer) {
+            this(schema, table, where, null, observer);
+        }
+
+        LiveEventRequest(String schema, String table, LivePredicate where, List<String> columns, LiveObserver observer) {
             this.schema = schema;
             this.table = table;
             this.where = where;
-            this.observer = observer;
+            this.columns = columns;
+            this.loadKey = new LoadKey(LiveTableKey.of(schema, table), where, columns);
+            this.observers.add(observer);
+        }
+    }
+
+    private static class LoadKey {
+
+        final LiveTableKey table;
+        final LivePredicate where;
+        final List<String> columns;
+
+        LoadKey(LiveTableKey table, LivePredicate where, List<String> columns) {
+            this.table = table;
+            this.where = where;
+            this.columns = columns;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * table.hashCode() + (where != null ? where.hashCode() : 0)) + Objects.hashCode(columns);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!LoadKey.class.isInstance(o))
+                return false;
+            LoadKey other = (LoadKey) o;
+            return table.equals(other.table) && Objects.equals(where, other.where) && Objects.equals(columns, other.columns);
         }
     }
 
-    private static class LiveEventResponse extends LiveEvent {
+    static class LiveEventResponse extends LiveEvent {
 
         Collection<LiveResponse> responses;
 
@@ -45,65 +90,257 @@ public abstract class LiveDatabase {
         }
     }
 
+    static class LiveEventResume extends LiveEvent {
+
+        String schema;
+        String table;
+        long sequence;
+        LiveObserver observer;
+
+        LiveEventResume(String schema, String table, long sequence, LiveObserver observer) {
+            this.schema = schema;
+            this.table = table;
+            this.sequence = sequence;
+            this.observer = observer;
+        }
+    }
+
+
+    public enum OverflowPolicy {
+        Block,      // hold up the binlog reader until the lane drains
+        Coalesce,   // merge into the table's pending responses, block if there are none
+        Degrade     // drop the table's pending responses and send the table a single Error
+    }
+
+
+    public static final int DefaultQueueCapacity = 10000;   // pending events per dispatch lane
+    public static final int DefaultLoadChunkSize = 0;       // rows per streamed load chunk, 0 loads in one piece
+    public static final long DefaultConstraintWindow = 5;   // ms to collect constraint keys before loading
+    public static final int DefaultConstraintBatchSize = 500;
 
-    private boolean running = true;
-    protected List<LiveTable> liveTables = new CopyOnWriteArrayList<>();
-    private BlockingQueue<LiveEvent> operationQueue = new LinkedBlockingDeque<>();
-    private Map<String, String> primaryKeys = new HashMap<>();
+    protected ConcurrentMap<LiveTableKey, LiveTable> liveTables = new ConcurrentHashMap<>();
+    private LiveDispatcher dispatcher;
+    private LiveConstraintBatcher constraintBatcher;
+    private Map<String, String> primaryKeys = new ConcurrentHashMap<>();
+    private final ConcurrentMap<LoadKey, LiveEventRequest> pendingLoads = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+    private final AtomicLong resumes = new AtomicLong();
+    private final AtomicLong resumeLoads = new AtomicLong();
+    private volatile int loadChunkSize = DefaultLoadChunkSize;
 
 
     public LiveDatabase() {
-        // LiveEvent queue processing thread
-        Thread thread = new Thread(() -> {
-            while (running) {
-                try {
-                    LiveEvent event = operationQueue.take();
-                    if (LiveEventRequest.class.isInstance(event)) {
-                        // Send data so specific observer
-                        sendData((LiveEventRequest) event);
-                    } else if (LiveEventResponse.class.isInstance(event)) {
-                        LiveEventResponse ler = (LiveEventResponse) event;
-                        // Notify LiveTable watchers
-                        for (LiveResponse response : ler.responses) {
-                            Iterator<LiveTable> iLiveTable = getTables();
-                            String lowerSchema = response.getSchema().toLowerCase();
-                            String lowerTable = response.getTable().toLowerCase();
-                            while (iLiveTable.hasNext()) {
-                                LiveTable l = iLiveTable.next();
-                                if (lowerTable.equals(l.getTableName())
-                                        && lowerSchema.equals(l.getSchemaName())) {
-                                    l.notifyWatchers(response);
-                                }
-                            }
-                        }
-                    }
-                } catch (Throwable e) {
-                    e.printStackTrace();
-                }
-            }
-        });
+        this(Runtime.getRuntime().availableProcessors());
+    }
 
-        thread.start();
+
+    public LiveDatabase(int dispatchThreads) {
+        this(dispatchThreads, DefaultQueueCapacity, OverflowPolicy.Block);
+    }
+
+
+    public LiveDatabase(int dispatchThreads, int queueCapacity, OverflowPolicy overflowPolicy) {
+        // LiveEvent processing lanes, events for a table always run in order on the same lane
+        dispatcher = new LiveDispatcher(dispatchThreads, queueCapacity, overflowPolicy, this::processEvent);
+        constraintBatcher = new LiveConstraintBatcher(this, DefaultConstraintWindow, DefaultConstraintBatchSize);
     }
 
 
     public void close() throws Exception {
-        running = false;
+        constraintBatcher.close();
+        dispatcher.close();
     }
 
 
     public void add(LiveEvent event) {
-        operationQueue.add(event);
+        if (LiveEventRequest.class.isInstance(event)) {
+            LiveEventRequest request = (LiveEventRequest) event;
+
+            // Share a pending or running identical load instead of querying again
+            LiveEventRequest shared = pendingLoads.compute(request.loadKey, (k, existing) -> {
+                if (existing == null)
+                    return request;
+                existing.observers.addAll(request.observers);
+                return existing;
+            });
+
+            if (shared == request)
+                dispatcher.dispatch(request.loadKey.table, event);
+            else
+                coalescedLoads.incrementAndGet();
+        } else if (LiveEventResponse.class.isInstance(event)) {
+            // Split transaction responses by table so each table's lane gets its own share
+            Map<LiveTableKey, List<LiveResponse>> byTable = new LinkedHashMap<>();
+            for (LiveResponse response : ((LiveEventResponse) event).responses) {
+                byTable.computeIfAbsent(LiveTableKey.lookup(response.getSchema(), response.getTable()),
+                        k -> new ArrayList<>()).add(response);
+            }
+            for (Map.Entry<LiveTableKey, List<LiveResponse>> entry : byTable.entrySet())
+                dispatcher.dispatch(entry.getKey(), new LiveEventResponse(entry.getValue()));
+        } else if (LiveEventResume.class.isInstance(event)) {
+            LiveEventResume resume = (LiveEventResume) event;
+            dispatcher.dispatch(LiveTableKey.of(resume.schema, resume.table), event);
+        }
+    }
+
+
+    public int getDispatchThreads() {
+        return dispatcher.getThreadCount();
+    }
+
+
+    void loadConstraints(LiveKeyCollection collection, LiveTable table, String keyColumn, Collection<String> keys) {
+        constraintBatcher.add(collection, table.getKey(), keyColumn, keys);
+    }
+
+
+    public long getConstraintBatchWindow() {
+        return constraintBatcher.getWindow();
+    }
+
+
+    public void setConstraintBatchWindow(long window) {
+        constraintBatcher.setWindow(window);
+    }
+
+
+    public int getConstraintBatchSize() {
+        return constraintBatcher.getMaxKeys();
+    }
+
+
+    public void setConstraintBatchSize(int maxKeys) {
+        constraintBatcher.setMaxKeys(maxKeys);
+    }
+
+
+    public int getLoadChunkSize() {
+        return loadChunkSize;
+    }
+
+
+    public void setLoadChunkSize(int loadChunkSize) {
+        this.loadChunkSize = loadChunkSize;
     }
 
 
-    public void add(LiveTable table) {
-        liveTables.add(table);
+    public long getCoalescedLoadCount() {
+        return coalescedLoads.get();
+    }
+
+
+    public long getResumeCount() {
+        return resumes.get();
+    }
+
+
+    public long getResumeLoadCount() {
+        return resumeLoads.get();
+    }
+
+
+    public int getQueueCapacity() {
+        return dispatcher.getCapacity();
+    }
+
+
+    public int getQueueDepth() {
+        return dispatcher.getDepth();
+    }
+
+
+    public OverflowPolicy getOverflowPolicy() {
+        return dispatcher.getPolicy();
+    }
+
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        dispatcher.setPolicy(overflowPolicy);
+    }
+
+
+    public long getOverflowBlockedCount() {
+        return dispatcher.getBlockedCount();
+    }
+
+
+    public long getOverflowCoalescedCount() {
+        return dispatcher.getCoalescedCount();
+    }
+
+
+    public long getOverflowDroppedCount() {
+        return dispatcher.getDroppedCount();
+    }
+
+
+    public long getOverflowDegradedCount() {
+        return dispatcher.getDegradedCount();
+    }
+
+
+    private void processEvent(LiveEvent event) {
+        if (LiveEventRequest.class.isInstance(event)) {
+            // Send data so specific observer
+            sendData((LiveEventRequest) event);
+        } else if (LiveEventResponse.class.isInstance(event)) {
+            LiveEventResponse ler = (LiveEventResponse) event;
+            // Notify LiveTable watchers
+            for (LiveResponse response : ler.responses) {
+                LiveTable l = findTable(response.getSchema(), response.getTable());
+                if (l != null) {
+                    l.record(response);
+                    // Replica changes first so loads after this response see them
+                    LiveTableReplica replica = l.getReplica();
+                    if (replica != null)
+                        replica.apply(response);
+                    l.notifyWatchers(response);
+                }
+            }
+        } else if (LiveEventResume.class.isInstance(event)) {
+            resume((LiveEventResume) event);
+        }
+    }
+
+
+    private void resume(LiveEventResume resume) {
+        // On the table's lane so no change can land between the missed ones and the watcher
+        LiveTable table = LiveTable.get(resume.schema, resume.table, this);
+        List<LiveResponse> missed = table.since(resume.sequence);
+        table.addWatcher(resume.observer, false);
+        if (missed == null) {
+            resumeLoads.incrementAndGet();
+            sendData(new LiveEventRequest(resume.schema, resume.table, null, resume.observer));
+            return;
+        }
+
+        resumes.incrementAndGet();
+        for (LiveResponse response : missed)
+            resume.observer.send(response);
+    }
+
+
+    public LiveTable add(LiveTable table) {
+        LiveTable existing = liveTables.putIfAbsent(table.getKey(), table);
+        if (existing != null)
+            return existing;
+        tablesChanged();
+        return table;
+    }
+
+
+    protected void tablesChanged() {
+        // Called whenever a table starts being watched
+    }
+
+
+    public LiveTable findTable(String schemaName, String tableName) {
+        return liveTables.get(LiveTableKey.lookup(schemaName, tableName));
     }
 
 
     public Iterator<LiveTable> getTables() {
-        return liveTables.iterator();
+        return liveTables.values().iterator();
     }
 
 
@@ -112,21 +349,83 @@ public abstract class LiveDatabase {
         String key = primaryKeys.get(tablePath);
         if (key == null) {
             key = loadPrimaryKey(schemaName, tableName);
-            primaryKeys.put(tablePath, key);
+            if (key != null)
+                primaryKeys.put(tablePath, key);
         }
         return key;
     }
 
 
     private void sendData(LiveEventRequest ler) {
-        ler.observer.send(getData(ler.schema, ler.table, ler.where));
+        // Served from memory when the table is replicated, the replica's own loads always query
+        LiveTable table = findTable(ler.schema, ler.table);
+        LiveTableReplica replica = table != null ? table.getReplica() : null;
+        if (replica != null && !ler.observers.contains(replica)) {
+            LiveResponse response = replica.query(ler.where);
+            if (response != null) {
+                response = LiveProjection.project(response, ler.columns);
+                response.setSequence(table.getSequence());
+                pendingLoads.remove(ler.loadKey, ler);
+                for (LiveObserver observer : ler.observers)
+                    observer.send(response);
+                return;
+            }
+        }
+
+        int chunkSize = loadChunkSize;
+        if (chunkSize > 0 && ler.where == null) {
+            // Nobody can join part way through a stream
+            pendingLoads.remove(ler.loadKey, ler);
+            streamData(ler.schema, ler.table, null, ler.columns, chunkSize, chunk -> {
+                if (table != null)
+                    chunk.setSequence(table.getSequence());
+                for (LiveObserver observer : ler.observers)
+                    observer.send(chunk);
+            });
+            return;
+        }
+
+        LiveResponse response;
+        try {
+            response = getData(ler.schema, ler.table, ler.where, ler.columns);
+        } finally {
+            // Later requests start a new load, nobody can join this one once it is removed
+            pendingLoads.remove(ler.loadKey, ler);
+        }
+
+        // Loads carry the sequence they are current to so observers can resume from them
+        if (table != null && response != null)
+            response.setSequence(table.getSequence());
+
+        // Observers share the response so must not modify it
+        for (LiveObserver observer : ler.observers)
+            observer.send(response);
     }
 
 
     protected abstract String loadPrimaryKey(String schemaName, String tableName);
 
 
-    protected abstract LiveResponse getData(String schema, String table, String where);
+    protected abstract LiveResponse getData(String schema, String table, LivePredicate where);
+
+
+    protected LiveResponse getData(String schema, String table, LivePredicate where, List<String> columns) {
+        // Databases that can't select columns load them all and trim
+        return LiveProjection.project(getData(schema, table, where), columns);
+    }
+
+
+    protected void streamData(String schema, String table, LivePredicate where,
+                              int chunkSize, Consumer<LiveResponse> sink) {
+        // Databases that can't stream send the whole load as one chunk
+        sink.accept(getData(schema, table, where));
+    }
+
+
+    protected void streamData(String schema, String table, LivePredicate where, List<String> columns,
+                              int chunkSize, Consumer<LiveResponse> sink) {
+        streamData(schema, table, where, chunkSize, chunk -> sink.accept(LiveProjection.project(chunk, columns)));
+    }
 
 
     protected abstract LiveResponse getInserted(String schema, String table);
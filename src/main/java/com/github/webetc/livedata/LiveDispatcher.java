@@ -0,0 +1,252 @@
+package com.github.webetc.livedata;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+class LiveDispatcher {
+
+    private static class Entry {
+        final LiveTableKey key;
+        final LiveDatabase.LiveEvent event;
+        final boolean reset;
+
+        Entry(LiveTableKey key, LiveDatabase.LiveEvent event, boolean reset) {
+            this.key = key;
+            this.event = event;
+            this.reset = reset;
+        }
+    }
+
+
+    private class Lane implements Runnable {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Deque<Entry> queue = new ArrayDeque<>();
+        private final Set<LiveTableKey> degraded = new HashSet<>();
+        private final Thread thread;
+
+        Lane(int index) {
+            thread = new Thread(this, "LiveDatabase-dispatch-" + index);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Entry entry;
+                lock.lock();
+                try {
+                    while (queue.isEmpty() && running)
+                        notEmpty.await();
+                    if (!running)
+                        break;
+                    entry = queue.pollFirst();
+                    if (entry.reset)
+                        degraded.remove(entry.key);
+                    notFull.signal();
+                } catch (InterruptedException e) {
+                    // Woken by close
+                    continue;
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    handler.accept(entry.event);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        void add(LiveTableKey key, LiveDatabase.LiveEvent event) {
+            lock.lock();
+            try {
+                // Requests come from clients and other lanes so never hold them back
+                if (!LiveDatabase.LiveEventResponse.class.isInstance(event)) {
+                    queue.addLast(new Entry(key, event, false));
+                    notEmpty.signal();
+                    return;
+                }
+
+                // Table already reset so anything before the reload is redundant
+                if (degraded.contains(key)) {
+                    droppedCount.incrementAndGet();
+                    return;
+                }
+
+                boolean blocked = false;
+                while (queue.size() >= capacity && running) {
+                    LiveDatabase.OverflowPolicy p = policy;
+                    if (p == LiveDatabase.OverflowPolicy.Coalesce && coalesce(key, (LiveDatabase.LiveEventResponse) event))
+                        return;
+                    if (p == LiveDatabase.OverflowPolicy.Degrade) {
+                        degrade(key);
+                        return;
+                    }
+                    if (!blocked) {
+                        blocked = true;
+                        blockedCount.incrementAndGet();
+                    }
+                    notFull.await();
+                }
+
+                queue.addLast(new Entry(key, event, false));
+                notEmpty.signal();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean coalesce(LiveTableKey key, LiveDatabase.LiveEventResponse event) {
+            // Only the table's last pending event can take more responses without reordering
+            Iterator<Entry> i = queue.descendingIterator();
+            while (i.hasNext()) {
+                Entry entry = i.next();
+                if (entry.key.equals(key)) {
+                    if (entry.reset || !LiveDatabase.LiveEventResponse.class.isInstance(entry.event))
+                        return false;
+                    ((LiveDatabase.LiveEventResponse) entry.event).responses.addAll(event.responses);
+                    coalescedCount.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void degrade(LiveTableKey key) {
+            Iterator<Entry> i = queue.iterator();
+            while (i.hasNext()) {
+                Entry entry = i.next();
+                if (entry.key.equals(key) && LiveDatabase.LiveEventResponse.class.isInstance(entry.event)) {
+                    i.remove();
+                    droppedCount.incrementAndGet();
+                }
+            }
+
+            // Watchers wipe and reload the table when the error arrives
+            List<LiveResponse> responses = new ArrayList<>();
+            responses.add(new LiveResponse(LiveResponse.Error, key.getSchema(), key.getTable()));
+            queue.addLast(new Entry(key, new LiveDatabase.LiveEventResponse(responses), true));
+            degraded.add(key);
+            degradedCount.incrementAndGet();
+            notEmpty.signal();
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            thread.interrupt();
+        }
+    }
+
+
+    private volatile boolean running = true;
+    private volatile LiveDatabase.OverflowPolicy policy;
+    private final int capacity;
+    private final Lane[] lanes;
+    private final Consumer<LiveDatabase.LiveEvent> handler;
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong degradedCount = new AtomicLong();
+
+
+    LiveDispatcher(int threads, int capacity, LiveDatabase.OverflowPolicy policy, Consumer<LiveDatabase.LiveEvent> handler) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Dispatcher needs at least 1 thread");
+        if (capacity < 1)
+            throw new IllegalArgumentException("Dispatcher queue capacity must be at least 1");
+        this.capacity = capacity;
+        this.policy = policy;
+        this.handler = handler;
+        this.lanes = new Lane[threads];
+        for (int i = 0; i < threads; i++)
+            lanes[i] = new Lane(i);
+        for (Lane lane : lanes)
+            lane.thread.start();
+    }
+
+
+    void dispatch(LiveTableKey key, LiveDatabase.LiveEvent event) {
+        if (!running)
+            return;
+
+        // Every event for a table goes to the same lane so its order is kept
+        lanes[(key.hashCode() & 0x7fffffff) % lanes.length].add(key, event);
+    }
+
+
+    int getThreadCount() {
+        return lanes.length;
+    }
+
+
+    int getCapacity() {
+        return capacity;
+    }
+
+
+    LiveDatabase.OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+
+    void setPolicy(LiveDatabase.OverflowPolicy policy) {
+        this.policy = policy;
+    }
+
+
+    int getDepth() {
+        int depth = 0;
+        for (Lane lane : lanes)
+            depth += lane.size();
+        return depth;
+    }
+
+
+    long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+
+    long getDegradedCount() {
+        return degradedCount.get();
+    }
+
+
+    void close() {
+        running = false;
+        for (Lane lane : lanes)
+            lane.close();
+    }
+}
@@ -1,16 +1,31 @@
 package com.github.webetc.livedata;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class LiveKeyCollection implements LiveObserver {
 
+    private static final int IndexStripes = 16;   // power of two, rows are striped by id hash
+
+
     protected LiveDatabase database;
     protected LiveTable table;
     protected LiveObserver observer;
     private String keyColumn;
-    private final Collection<String> keyConstraints = new HashSet<>();
-    private final Map<String, String> idKeyIndex = new HashMap<>();
-    private final Map<String, Collection<String>> keyIdIndex = new HashMap<>();
+    private final Set<String> keyConstraints = ConcurrentHashMap.newKeySet();
+    private final LiveKeyIndex[] keyIndexes = new LiveKeyIndex[IndexStripes];
+    private final ReentrantLock[] indexLocks = new ReentrantLock[IndexStripes];   // held per row, never per batch
+    private final AtomicLong removals = new AtomicLong();                          // bumped before every constraint removal
+
+
+    {
+        for (int i = 0; i < IndexStripes; i++) {
+            keyIndexes[i] = new LiveKeyIndex();
+            indexLocks[i] = new ReentrantLock();
+        }
+    }
 
 
     public LiveKeyCollection(String schemaName, String tableName,
@@ -19,7 +34,8 @@ public class LiveKeyCollection implements LiveObserver {
         this.database = database;
         this.table = LiveTable.get(schemaName, tableName, database);
         this.keyColumn = keyColumn.toLowerCase();
-        this.keyConstraints.add(constraint);
+        if (constraint != null)
+            this.keyConstraints.add(constraint);
         this.observer = watcher;
         table.addWatcher(this);
     }
@@ -41,15 +57,10 @@ public class LiveKeyCollection implements LiveObserver {
 
 
     public void addConstraint(String key) {
-        synchronized (keyConstraints) {
-            keyConstraints.add(key);
-        }
+        // Adding never invalidates indexed rows so it doesn't need the index lock
+        keyConstraints.add(key);
 
-        database.add(LiveDatabase.LiveEvent.create(
-                table.getSchemaName(),
-                table.getTableName(),
-                "where " + keyColumn + " = '" + key + "'",
-                this));
+        database.loadConstraints(this, table, keyColumn, Collections.singletonList(key));
     }
 
 
@@ -57,82 +68,29 @@ public class LiveKeyCollection implements LiveObserver {
         if (keys == null || keys.size() == 0)
             return;
 
-        if (keys.size() == 1) {
-            addConstraint(keys.iterator().next());
-            return;
-        }
-
-        synchronized (keyConstraints) {
-            keyConstraints.addAll(keys);
-        }
+        keyConstraints.addAll(keys);
 
-        StringBuilder where = new StringBuilder("where " + keyColumn + " in (");
-        boolean first = true;
-        for (String key : keys) {
-            if (first) {
-                first = false;
-                where
-                        .append("'")
-                        .append(key)
-                        .append("'");
-            } else {
-                where
-                        .append(", '")
-                        .append(key)
-                        .append("'");
-            }
-        }
-        where.append(")");
-
-        database.add(LiveDatabase.LiveEvent.create(
-                table.getSchemaName(),
-                table.getTableName(),
-                where.toString(),
-                this));
+        database.loadConstraints(this, table, keyColumn, keys);
     }
 
 
     public void removeConstraint(String key) {
-        synchronized (keyConstraints) {
-            keyConstraints.remove(key);
-        }
-
-        // Remove rows from existing indexes
-        Collection<String> keyIds;
-        synchronized (keyIdIndex) {
-            keyIds = keyIdIndex.get(key);
-            keyIdIndex.remove(key);
-        }
-        synchronized (idKeyIndex) {
-            if (keyIds != null) {
-                for (String id : keyIds) {
-                    idKeyIndex.remove(id);
-                }
-            }
-        }
-
-        if (keyIds != null && keyIds.size() > 0)
-            notifyIdRemoval(keyIds);
+        removeConstraints(Collections.singletonList(key));
     }
 
 
     public void removeConstraints(Collection<String> keys) {
-        synchronized (keyConstraints) {
-            for (String key : keys)
-                keyConstraints.remove(key);
-        }
-
-        // Remove rows from existing indexes
+        // Constraints go first so no batch can index the keys again, then each stripe is cleared in turn
+        removals.incrementAndGet();
+        keyConstraints.removeAll(keys);
         Collection<String> keyIds = new ArrayList<>();
-        synchronized (keyIdIndex) {
-            for (String key : keys) {
-                keyIds.addAll(keyIdIndex.get(key));
-                keyIdIndex.remove(key);
-            }
-        }
-        synchronized (idKeyIndex) {
-            for (String id : keyIds) {
-                idKeyIndex.remove(id);
+        for (int i = 0; i < IndexStripes; i++) {
+            indexLocks[i].lock();
+            try {
+                for (String key : keys)
+                    keyIds.addAll(keyIndexes[i].removeKey(key));
+            } finally {
+                indexLocks[i].unlock();
             }
         }
 
@@ -141,40 +99,22 @@ public class LiveKeyCollection implements LiveObserver {
     }
 
 
-    private void updateIdIndex(String id, String key) {
-        if (key != null) {
-            synchronized (idKeyIndex) {
-                idKeyIndex.put(id, key);
-            }
-            synchronized (keyIdIndex) {
-                Collection<String> ids = keyIdIndex.get(key);
-                if (ids == null) {
-                    ids = new HashSet<>();
-                    keyIdIndex.put(key, ids);
-                }
-                ids.add(id);
-            }
-        } else {
-            synchronized (idKeyIndex) {
-                key = idKeyIndex.get(id);
-                idKeyIndex.remove(id);
-            }
-            synchronized (keyIdIndex) {
-                Collection<String> ids = keyIdIndex.get(key);
-                if (ids != null)
-                    ids.remove(id);
-            }
-        }
-    }
-
-
     @Override
     public void send(LiveResponse input) {
+        if (LiveResponse.Error.equals(input.getAction())) {
+            observer.send(input);
+            return;
+        }
+        // Nothing to index without rows, e.g. an empty result routed back from a batch
+        if (input.getColumns() == null || input.getRecords() == null)
+            return;
+
         LiveResponse response = cloneResponse(input);
         int idCol = input.getIdColumnIndex();
         Integer keyColIndex = null;
         Collection<String> addedIds = new ArrayList<>();
         Collection<String> removedIds = new ArrayList<>();
+        long removalsBefore = removals.get();
 
         // Find key column
         for (int i = 0; i < input.getColumns().size(); i++) {
@@ -183,55 +123,61 @@ public class LiveKeyCollection implements LiveObserver {
                 keyColIndex = i;
         }
 
-        // Add rows
+        // Add rows, each one under its stripe's lock so constraint changes never wait on a whole batch
         for (List<String> row : input.getRecords()) {
             String id = row.get(idCol);
+            String key = keyColIndex != null ? row.get(keyColIndex) : null;
             boolean addRow = false;
 
-            boolean contained;
-            synchronized (idKeyIndex) {
-                contained = idKeyIndex.get(id) != null;
-            }
-            if (contained) {
-                // Row is already in id index to just add
-                addRow = true;
-
-            } else if (keyColIndex != null) {
-                // Check if row matches constraint
-                String key = row.get(keyColIndex);
-                boolean keyMatches;
-                synchronized (keyConstraints) {
-                    keyMatches = keyConstraints.contains(key);
-                }
-                if (keyMatches) {
+            int stripe = stripe(id);
+            indexLocks[stripe].lock();
+            try {
+                LiveKeyIndex keyIndex = keyIndexes[stripe];
+                if (keyIndex.contains(id)) {
+                    // Row is already in id index to just add
+                    addRow = true;
+
+                } else if (key != null && keyConstraints.contains(key)) {
                     /*
                     NOTE: if key column was updated to something that now matches
                     not all of the columns will be available so will ony work
                     on a foreign key that doesn't get changed for now.
                     */
-                    updateIdIndex(id, key);
+                    keyIndex.put(id, key);
                     addRow = true;
                     addedIds.add(id);
                 }
-            }
 
-            if (addRow) {
-                response.addRecord(row);
-                if (response.getAction().equals(LiveResponse.Delete)) {
-                    updateIdIndex(id, null);
+                if (addRow && response.getAction().equals(LiveResponse.Delete)) {
+                    keyIndex.remove(id);
                     removedIds.add(id);
                 }
+            } finally {
+                indexLocks[stripe].unlock();
             }
+
+            if (addRow)
+                response.addRecord(row);
         }
 
-        // Notify watcher of matching rows
-        if (response.getRecords() != null && response.getRecords().size() > 0)
+        // Notify watcher of matching rows, chunked loads always pass on their start and end
+        if ((response.getRecords() != null && response.getRecords().size() > 0)
+                || LiveResponse.ChunkStart.equals(response.getChunk())
+                || LiveResponse.ChunkEnd.equals(response.getChunk())) {
+            if (response.getRecords() == null)
+                response.setRecords(new ArrayList<>());
             observer.send(response);
+        }
 
         if (addedIds.size() > 0)
             this.addedIds(addedIds);
         if (removedIds.size() > 0)
             this.removedIds(removedIds);
+
+        // A removal during the batch may have sent its delete before these rows went out
+        if (removals.get() != removalsBefore && response.getRecords() != null
+                && !LiveResponse.Delete.equals(response.getAction()))
+            removeStale(response);
     }
 
 
@@ -261,9 +207,34 @@ public class LiveKeyCollection implements LiveObserver {
     }
 
 
+    private void removeStale(LiveResponse sent) {
+        Collection<String> stale = new ArrayList<>();
+        for (List<String> row : sent.getRecords()) {
+            String id = row.get(sent.getIdColumnIndex());
+            int stripe = stripe(id);
+            indexLocks[stripe].lock();
+            try {
+                if (!keyIndexes[stripe].contains(id))
+                    stale.add(id);
+            } finally {
+                indexLocks[stripe].unlock();
+            }
+        }
+        if (stale.size() > 0)
+            notifyIdRemoval(stale);
+    }
+
+
+    private static int stripe(String id) {
+        int h = id != null ? id.hashCode() : 0;
+        return (h ^ (h >>> 16)) & (IndexStripes - 1);
+    }
+
+
     private LiveResponse cloneResponse(LiveResponse input) {
         LiveResponse response = new LiveResponse(input.getAction(), input.getSchema(), input.getTable());
         response.setIdColumnIndex(input.getIdColumnIndex());
+        response.setChunk(input.getChunk());
         response.setColumns(new ArrayList<>());
         response.getColumns().addAll(input.getColumns());
         return response;
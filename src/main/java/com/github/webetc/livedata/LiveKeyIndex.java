@@ -0,0 +1,374 @@
+package com.github.webetc.livedata;
+
+import java.util.*;
+
+class LiveKeyIndex {
+
+    private static final long Empty = Long.MIN_VALUE;   // free slot marker, never accepted as a numeric key
+
+
+    // Open addressing id -> key map, removal shifts entries back instead of leaving tombstones
+    static class LongLongMap {
+        long[] keys;
+        long[] values;
+        int size = 0;
+
+        LongLongMap(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            Arrays.fill(keys, Empty);
+        }
+
+        long get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); keys[i] != Empty; i = (i + 1) & mask) {
+                if (keys[i] == key)
+                    return values[i];
+            }
+            return Empty;
+        }
+
+        long put(long key, long value) {
+            if ((size + 1) * 4 > keys.length * 3)
+                resize();
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            for (; keys[i] != Empty; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    long previous = values[i];
+                    values[i] = value;
+                    return previous;
+                }
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+            return Empty;
+        }
+
+        long remove(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); keys[i] != Empty; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    long previous = values[i];
+                    int gap = i;
+                    for (int j = (i + 1) & mask; keys[j] != Empty; j = (j + 1) & mask) {
+                        if (canShift(slot(keys[j], mask), gap, j)) {
+                            keys[gap] = keys[j];
+                            values[gap] = values[j];
+                            gap = j;
+                        }
+                    }
+                    keys[gap] = Empty;
+                    size--;
+                    return previous;
+                }
+            }
+            return Empty;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            Arrays.fill(keys, Empty);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == Empty)
+                    continue;
+                int j = slot(oldKeys[i], mask);
+                while (keys[j] != Empty)
+                    j = (j + 1) & mask;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+
+    // Open addressing key -> ids map, each key holds an unordered long[] with its own count
+    static class LongArrayMap {
+        long[] keys;
+        long[][] values;
+        int[] counts;
+        int size = 0;
+
+        LongArrayMap(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity][];
+            counts = new int[capacity];
+            Arrays.fill(keys, Empty);
+        }
+
+        void add(long key, long id) {
+            if ((size + 1) * 4 > keys.length * 3)
+                resize();
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (keys[i] != Empty && keys[i] != key)
+                i = (i + 1) & mask;
+            if (keys[i] == Empty) {
+                keys[i] = key;
+                values[i] = new long[2];
+                counts[i] = 0;
+                size++;
+            }
+            long[] ids = values[i];
+            if (counts[i] == ids.length)
+                values[i] = ids = Arrays.copyOf(ids, ids.length * 2);
+            ids[counts[i]++] = id;
+        }
+
+        void remove(long key, long id) {
+            int i = find(key);
+            if (i < 0)
+                return;
+            long[] ids = values[i];
+            int count = counts[i];
+            for (int j = 0; j < count; j++) {
+                if (ids[j] == id) {
+                    ids[j] = ids[--count];
+                    counts[i] = count;
+                    break;
+                }
+            }
+            if (count == 0)
+                removeSlot(i);
+        }
+
+        long[] removeAll(long key) {
+            int i = find(key);
+            if (i < 0)
+                return null;
+            long[] ids = Arrays.copyOf(values[i], counts[i]);
+            removeSlot(i);
+            return ids;
+        }
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); keys[i] != Empty; i = (i + 1) & mask) {
+                if (keys[i] == key)
+                    return i;
+            }
+            return -1;
+        }
+
+        private void removeSlot(int i) {
+            int mask = keys.length - 1;
+            int gap = i;
+            for (int j = (i + 1) & mask; keys[j] != Empty; j = (j + 1) & mask) {
+                if (canShift(slot(keys[j], mask), gap, j)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    counts[gap] = counts[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = Empty;
+            values[gap] = null;
+            counts[gap] = 0;
+            size--;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[][] oldValues = values;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2][];
+            counts = new int[oldKeys.length * 2];
+            Arrays.fill(keys, Empty);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == Empty)
+                    continue;
+                int j = slot(oldKeys[i], mask);
+                while (keys[j] != Empty)
+                    j = (j + 1) & mask;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+                counts[j] = oldCounts[i];
+            }
+        }
+    }
+
+
+    private static final int InitialCapacity = 16;
+
+    // Numeric ids and keys until the first value that isn't a canonical long, then Strings
+    private LongLongMap idKeys = new LongLongMap(InitialCapacity);
+    private LongArrayMap keyIds = new LongArrayMap(InitialCapacity);
+    private Map<String, String> idKeyIndex = null;
+    private Map<String, Collection<String>> keyIdIndex = null;
+
+
+    boolean isNumeric() {
+        return idKeys != null;
+    }
+
+
+    int size() {
+        return isNumeric() ? idKeys.size : idKeyIndex.size();
+    }
+
+
+    boolean contains(String id) {
+        if (id == null)
+            return false;
+        if (isNumeric()) {
+            long numericId = parse(id);
+            return numericId != Empty && idKeys.get(numericId) != Empty;
+        }
+        return idKeyIndex.containsKey(id);
+    }
+
+
+    String getKey(String id) {
+        if (id == null)
+            return null;
+        if (isNumeric()) {
+            long numericId = parse(id);
+            long key = numericId == Empty ? Empty : idKeys.get(numericId);
+            return key == Empty ? null : Long.toString(key);
+        }
+        return idKeyIndex.get(id);
+    }
+
+
+    void put(String id, String key) {
+        if (isNumeric()) {
+            long numericId = parse(id);
+            long numericKey = parse(key);
+            if (numericId != Empty && numericKey != Empty) {
+                long previous = idKeys.put(numericId, numericKey);
+                if (previous == numericKey)
+                    return;
+                if (previous != Empty)
+                    keyIds.remove(previous, numericId);
+                keyIds.add(numericKey, numericId);
+                return;
+            }
+            toStrings();
+        }
+
+        String previous = idKeyIndex.put(id, key);
+        if (previous != null) {
+            Collection<String> ids = keyIdIndex.get(previous);
+            if (ids != null)
+                ids.remove(id);
+        }
+        keyIdIndex.computeIfAbsent(key, k -> new HashSet<>()).add(id);
+    }
+
+
+    String remove(String id) {
+        if (id == null)
+            return null;
+        if (isNumeric()) {
+            long numericId = parse(id);
+            long key = numericId == Empty ? Empty : idKeys.remove(numericId);
+            if (key == Empty)
+                return null;
+            keyIds.remove(key, numericId);
+            return Long.toString(key);
+        }
+
+        String key = idKeyIndex.remove(id);
+        if (key != null) {
+            Collection<String> ids = keyIdIndex.get(key);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty())
+                    keyIdIndex.remove(key);
+            }
+        }
+        return key;
+    }
+
+
+    Collection<String> removeKey(String key) {
+        // Ids of every row that had the key, empty if none
+        if (key == null)
+            return Collections.emptyList();
+        if (isNumeric()) {
+            long numericKey = parse(key);
+            long[] ids = numericKey == Empty ? null : keyIds.removeAll(numericKey);
+            if (ids == null)
+                return Collections.emptyList();
+            List<String> removed = new ArrayList<>(ids.length);
+            for (long id : ids) {
+                idKeys.remove(id);
+                removed.add(Long.toString(id));
+            }
+            return removed;
+        }
+
+        Collection<String> ids = keyIdIndex.remove(key);
+        if (ids == null)
+            return Collections.emptyList();
+        for (String id : ids)
+            idKeyIndex.remove(id);
+        return ids;
+    }
+
+
+    private void toStrings() {
+        idKeyIndex = new HashMap<>();
+        keyIdIndex = new HashMap<>();
+        for (int i = 0; i < idKeys.keys.length; i++) {
+            if (idKeys.keys[i] == Empty)
+                continue;
+            String id = Long.toString(idKeys.keys[i]);
+            String key = Long.toString(idKeys.values[i]);
+            idKeyIndex.put(id, key);
+            keyIdIndex.computeIfAbsent(key, k -> new HashSet<>()).add(id);
+        }
+        idKeys = null;
+        keyIds = null;
+    }
+
+
+    static long parse(String value) {
+        // Only canonical longs, so converting back gives the exact same String
+        if (value == null)
+            return Empty;
+        int length = value.length();
+        int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+        if (length == start || length - start > 19)
+            return Empty;
+        if (value.charAt(start) == '0' && (length - start > 1 || start == 1))
+            return Empty;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9')
+                return Empty;
+        }
+        if (length - start < 19) {
+            long result = 0;
+            for (int i = start; i < length; i++)
+                result = result * 10 + (value.charAt(i) - '0');
+            return start == 1 ? -result : result;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return Empty;
+        }
+    }
+
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+
+    private static boolean canShift(int home, int gap, int j) {
+        // Entry at j may fill the gap only if the gap lies between its home slot and j
+        if (j > gap)
+            return home <= gap || home > j;
+        return home <= gap && home > j;
+    }
+}
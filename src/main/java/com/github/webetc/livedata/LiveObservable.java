@@ -12,7 +12,17 @@ public class LiveObservable {
 
 
     public void removeWatcher(LiveObserver o) {
-        watchers.remove(o);
+        for (LiveObserver w : watchers) {
+            if (w == o) {
+                watchers.remove(w);
+            } else if (AsyncLiveObserver.class.isInstance(w) && ((AsyncLiveObserver) w).getObserver() == o) {
+                // Registered through an async mailbox so stop its delivery too
+                watchers.remove(w);
+                ((AsyncLiveObserver) w).close();
+            } else if (LiveProjection.class.isInstance(w) && ((LiveProjection) w).getObserver() == o) {
+                watchers.remove(w);
+            }
+        }
     }
 
 
@@ -0,0 +1,391 @@
+package com.github.webetc.livedata;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+public abstract class LivePredicate {
+
+    public interface Evaluator {
+        // Row values in the column order the predicate was compiled for
+        boolean test(List<String> row);
+    }
+
+
+    public static final int MaxInListSize = 1024;   // largest IN bucket, bigger sets get chunked
+
+
+    public static LivePredicate eq(String column, Object value) {
+        return new Comparison(column, "=", value);
+    }
+
+
+    public static LivePredicate compare(String column, String operator, Object value) {
+        return new Comparison(column, operator, value);
+    }
+
+
+    public static LivePredicate in(String column, Collection<?> values) {
+        if (values.size() == 1)
+            return eq(column, values.iterator().next());
+        return new In(column, new ArrayList<>(values));
+    }
+
+
+    public static LivePredicate and(LivePredicate... predicates) {
+        return new Junction("and", Arrays.asList(predicates));
+    }
+
+
+    public static LivePredicate or(LivePredicate... predicates) {
+        return new Junction("or", Arrays.asList(predicates));
+    }
+
+
+    public abstract void toSql(StringBuilder sql, List<Object> parameters);
+
+
+    public Evaluator compile(List<String> columns) {
+        // Columns resolved once, a predicate on a column that isn't there never matches
+        return compile(columns, new HashMap<>());
+    }
+
+
+    public Set<String> getColumns() {
+        Set<String> columns = new LinkedHashSet<>();
+        addColumns(columns);
+        return columns;
+    }
+
+
+    abstract Evaluator compile(List<String> columns, Map<String, Integer> positions);
+
+
+    abstract void addColumns(Set<String> columns);
+
+
+    public List<LivePredicate> chunk(int maxValues) {
+        return Collections.singletonList(this);
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder sql = new StringBuilder();
+        List<Object> parameters = new ArrayList<>();
+        toSql(sql, parameters);
+        return sql + " " + parameters;
+    }
+
+
+    static class Comparison extends LivePredicate {
+
+        private static final Set<String> operators = new HashSet<>(Arrays.asList("=", "<>", "!=", "<", "<=", ">", ">="));
+
+        final String column;
+        final String operator;
+        final Object value;
+
+        Comparison(String column, String operator, Object value) {
+            if (!operators.contains(operator))
+                throw new IllegalArgumentException("Unsupported operator " + operator);
+            this.column = column;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        public void toSql(StringBuilder sql, List<Object> parameters) {
+            sql.append(quote(column)).append(' ').append(operator).append(" ?");
+            parameters.add(value);
+        }
+
+        @Override
+        Evaluator compile(List<String> columns, Map<String, Integer> positions) {
+            int position = position(columns, positions, column);
+            if (position < 0 || value == null)
+                return row -> false;
+            Object operand = operand(value);
+            IntPredicate accept;
+            switch (operator) {
+                case "=":
+                    accept = c -> c == 0;
+                    break;
+                case "<>":
+                case "!=":
+                    accept = c -> c != 0;
+                    break;
+                case "<":
+                    accept = c -> c < 0;
+                    break;
+                case "<=":
+                    accept = c -> c <= 0;
+                    break;
+                case ">":
+                    accept = c -> c > 0;
+                    break;
+                default:
+                    accept = c -> c >= 0;
+            }
+            // SQL NULL matches no comparison
+            return row -> row.get(position) != null && accept.test(compareValue(row.get(position), operand));
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            columns.add(column);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(column, operator, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!Comparison.class.isInstance(o))
+                return false;
+            Comparison other = (Comparison) o;
+            return column.equals(other.column) && operator.equals(other.operator) && Objects.equals(value, other.value);
+        }
+    }
+
+
+    static class In extends LivePredicate {
+
+        final String column;
+        final List<Object> values;
+
+        In(String column, List<Object> values) {
+            if (values.isEmpty())
+                throw new IllegalArgumentException("IN list needs at least one value");
+            this.column = column;
+            this.values = values;
+        }
+
+        @Override
+        public void toSql(StringBuilder sql, List<Object> parameters) {
+            // Pad to a power of two so only a handful of distinct statements get prepared
+            int bucket = bucketSize(values.size());
+            sql.append(quote(column)).append(" in (");
+            for (int i = 0; i < bucket; i++) {
+                if (i > 0)
+                    sql.append(", ");
+                sql.append('?');
+                parameters.add(values.get(Math.min(i, values.size() - 1)));
+            }
+            sql.append(')');
+        }
+
+        @Override
+        Evaluator compile(List<String> columns, Map<String, Integer> positions) {
+            int position = position(columns, positions, column);
+            if (position < 0)
+                return row -> false;
+            Set<Object> operands = new HashSet<>();
+            boolean numeric = true;
+            for (Object value : values) {
+                if (value != null) {
+                    Object operand = operand(value);
+                    operands.add(operand);
+                    numeric &= BigDecimal.class.isInstance(operand);
+                }
+            }
+            if (numeric) {
+                // All numbers so a hash lookup works once the row value is parsed the same way
+                return row -> {
+                    String v = row.get(position);
+                    BigDecimal parsed = v != null ? number(v) : null;
+                    return parsed != null && operands.contains(parsed);
+                };
+            }
+            return row -> {
+                if (row.get(position) == null)
+                    return false;
+                for (Object operand : operands) {
+                    if (compareValue(row.get(position), operand) == 0)
+                        return true;
+                }
+                return false;
+            };
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            columns.add(column);
+        }
+
+        @Override
+        public List<LivePredicate> chunk(int maxValues) {
+            if (values.size() <= maxValues)
+                return Collections.singletonList(this);
+
+            List<LivePredicate> chunks = new ArrayList<>();
+            for (int i = 0; i < values.size(); i += maxValues)
+                chunks.add(new In(column, values.subList(i, Math.min(values.size(), i + maxValues))));
+            return chunks;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * column.hashCode() + values.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!In.class.isInstance(o))
+                return false;
+            In other = (In) o;
+            return column.equals(other.column) && values.equals(other.values);
+        }
+    }
+
+
+    static class Junction extends LivePredicate {
+
+        final String operator;
+        final List<LivePredicate> predicates;
+
+        Junction(String operator, List<LivePredicate> predicates) {
+            if (predicates.isEmpty())
+                throw new IllegalArgumentException(operator + " needs at least one predicate");
+            this.operator = operator;
+            this.predicates = new ArrayList<>(predicates);
+        }
+
+        @Override
+        public void toSql(StringBuilder sql, List<Object> parameters) {
+            sql.append('(');
+            for (int i = 0; i < predicates.size(); i++) {
+                if (i > 0)
+                    sql.append(' ').append(operator).append(' ');
+                predicates.get(i).toSql(sql, parameters);
+            }
+            sql.append(')');
+        }
+
+        @Override
+        Evaluator compile(List<String> columns, Map<String, Integer> positions) {
+            Evaluator[] evaluators = new Evaluator[predicates.size()];
+            for (int i = 0; i < evaluators.length; i++)
+                evaluators[i] = predicates.get(i).compile(columns, positions);
+            boolean and = "and".equals(operator);
+            return row -> {
+                for (Evaluator evaluator : evaluators) {
+                    if (evaluator.test(row) != and)
+                        return !and;
+                }
+                return and;
+            };
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            for (LivePredicate predicate : predicates)
+                predicate.addColumns(columns);
+        }
+
+        @Override
+        public List<LivePredicate> chunk(int maxValues) {
+            // An and splits on its first oversized member, the chunks stay disjoint so no row comes back twice
+            if (!"and".equals(operator))
+                return Collections.singletonList(this);
+            for (int i = 0; i < predicates.size(); i++) {
+                List<LivePredicate> parts = predicates.get(i).chunk(maxValues);
+                if (parts.size() < 2)
+                    continue;
+                List<LivePredicate> chunks = new ArrayList<>();
+                for (LivePredicate part : parts) {
+                    List<LivePredicate> members = new ArrayList<>(predicates);
+                    members.set(i, part);
+                    chunks.addAll(new Junction(operator, members).chunk(maxValues));
+                }
+                return chunks;
+            }
+            return Collections.singletonList(this);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * operator.hashCode() + predicates.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!Junction.class.isInstance(o))
+                return false;
+            Junction other = (Junction) o;
+            return operator.equals(other.operator) && predicates.equals(other.predicates);
+        }
+    }
+
+
+    private static int position(List<String> columns, Map<String, Integer> positions, String column) {
+        return positions.computeIfAbsent(column.toLowerCase(), k -> {
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).equalsIgnoreCase(column))
+                    return i;
+            }
+            return -1;
+        });
+    }
+
+
+    private static String quote(String column) {
+        return '`' + column.replace("`", "``") + '`';
+    }
+
+
+    private static Object operand(Object value) {
+        // Numbers compare as numbers, text as text like the default collation, so '007' isn't '7'
+        if (Number.class.isInstance(value))
+            return new BigDecimal(value.toString()).stripTrailingZeros();
+        return unpad(value.toString());
+    }
+
+
+    private static BigDecimal number(String text) {
+        try {
+            return new BigDecimal(text.trim()).stripTrailingZeros();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+
+    private static int compareValue(String rowValue, Object operand) {
+        if (BigDecimal.class.isInstance(operand)) {
+            BigDecimal number = number(rowValue);
+            if (number != null)
+                return number.compareTo((BigDecimal) operand);
+            return unpad(rowValue).compareToIgnoreCase(operand.toString());
+        }
+        return unpad(rowValue).compareToIgnoreCase((String) operand);
+    }
+
+
+    static String normalize(Object value) {
+        // Values the evaluator counts as equal give the same key, e.g. for in memory indexes
+        Object operand = operand(value);
+        if (BigDecimal.class.isInstance(operand))
+            return ((BigDecimal) operand).toPlainString();
+        return ((String) operand).toLowerCase(Locale.ROOT);
+    }
+
+
+    private static String unpad(String text) {
+        // Trailing spaces don't count, like the default PAD SPACE collations
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == ' ')
+            end--;
+        return end == text.length() ? text : text.substring(0, end);
+    }
+
+
+    static int bucketSize(int size) {
+        int bucket = 1;
+        while (bucket < size)
+            bucket <<= 1;
+        return bucket;
+    }
+}
@@ -0,0 +1,287 @@
+package com.github.webetc.livedata;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LivePredicateCollection implements LiveObserver {
+
+    // Where each column of an incoming response goes in the collection's rows
+    private static class Layout {
+        final int[] positions;      // -1 for columns the collection doesn't know
+        final boolean complete;     // carries every column
+        final boolean covers;       // carries every column the predicate looks at
+
+        Layout(int[] positions, boolean complete, boolean covers) {
+            this.positions = positions;
+            this.complete = complete;
+            this.covers = covers;
+        }
+    }
+
+
+    protected LiveDatabase database;
+    protected LiveTable table;
+    protected LiveObserver observer;
+    private final LivePredicate predicate;
+    private final LiveObserver loader = this::loaded;
+    private final LiveObserver fetcher = this::fetched;
+
+    // Guarded by this, changes and loads all arrive on the table's lane
+    private boolean loaded = false;
+    private boolean failed = false;             // last load came back as an Error
+    private List<String> columns = null;
+    private int idColumnIndex = 0;
+    private LivePredicate.Evaluator evaluator = null;
+    private final Map<List<String>, Layout> layouts = new HashMap<>();
+    private final Map<String, List<String>> members = new LinkedHashMap<>();
+
+    private final AtomicLong entered = new AtomicLong();
+    private final AtomicLong left = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+
+
+    public LivePredicateCollection(String schemaName, String tableName, LivePredicate predicate,
+                                   LiveDatabase database, LiveObserver watcher) {
+        this.database = database;
+        this.table = LiveTable.get(schemaName, tableName, database);
+        this.predicate = predicate;
+        this.observer = watcher;
+
+        // Changes before the load are part of it so they are ignored until it arrives
+        table.addWatcher(this, false);
+        load();
+    }
+
+
+    public void close() {
+        table.removeWatcher(this);
+    }
+
+
+    public LivePredicate getPredicate() {
+        return predicate;
+    }
+
+
+    public synchronized int size() {
+        return members.size();
+    }
+
+
+    public long getEnteredCount() {
+        return entered.get();
+    }
+
+
+    public long getLeftCount() {
+        return left.get();
+    }
+
+
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+
+    @Override
+    public synchronized void send(LiveResponse input) {
+        if (!loaded) {
+            // A failed load is tried again once the table has been reset, otherwise it's still on its way
+            if (LiveResponse.Error.equals(input.getAction()) && failed)
+                load();
+            return;
+        }
+        if (LiveResponse.Error.equals(input.getAction())) {
+            // Lost track of the table, the watcher starts again from a new load
+            observer.send(input);
+            load();
+            return;
+        }
+        if (input.getRecords() == null || input.getColumns() == null)
+            return;
+
+        Layout layout = layout(input.getColumns());
+        int idCol = input.getIdColumnIndex();
+        LiveResponse changed = create(LiveResponse.Modify);
+        List<String> leaving = new ArrayList<>();
+        List<String> unknown = new ArrayList<>();
+
+        for (List<String> record : input.getRecords()) {
+            String id = record.get(idCol);
+            List<String> held = members.get(id);
+
+            if (LiveResponse.Delete.equals(input.getAction())) {
+                if (held != null)
+                    leaving.add(id);
+                continue;
+            }
+
+            if (held == null && !layout.complete) {
+                // Partial row for a row not held, only the database knows if it matches now
+                if (!layout.covers || evaluator.test(merge(layout, record, null)))
+                    unknown.add(id);
+                continue;
+            }
+
+            List<String> row = merge(layout, record, held);
+            if (evaluator.test(row)) {
+                members.put(id, row);
+                changed.addRecord(row);
+                if (held == null)
+                    entered.incrementAndGet();
+            } else if (held != null) {
+                leaving.add(id);
+            }
+        }
+
+        if (changed.getRecords() != null)
+            observer.send(changed);
+        if (!leaving.isEmpty())
+            leave(leaving);
+        if (!unknown.isEmpty())
+            fetch(unknown);
+    }
+
+
+    protected void addedIds(Collection<String> ids) {
+
+    }
+
+
+    protected void removedIds(Collection<String> ids) {
+
+    }
+
+
+    private void load() {
+        loaded = false;
+        failed = false;
+        database.add(LiveDatabase.LiveEvent.create(table.getSchemaName(), table.getTableName(), predicate, loader));
+    }
+
+
+    private synchronized void loaded(LiveResponse input) {
+        if (LiveResponse.Error.equals(input.getAction())) {
+            failed = true;
+            observer.send(input);
+            return;
+        }
+
+        // The database already applied the predicate, the evaluator takes over from here
+        members.clear();
+        layouts.clear();
+        columns = input.getColumns() != null ? new ArrayList<>(input.getColumns()) : null;
+        idColumnIndex = input.getIdColumnIndex();
+        evaluator = columns != null ? predicate.compile(columns) : null;
+        loaded = columns != null;
+
+        LiveResponse response = create(LiveResponse.Load);
+        response.setRecords(new ArrayList<>());
+        if (input.getRecords() != null) {
+            for (List<String> row : input.getRecords()) {
+                members.put(row.get(idColumnIndex), row);
+                response.addRecord(row);
+            }
+        }
+        observer.send(response);
+        if (!members.isEmpty())
+            addedIds(new ArrayList<>(members.keySet()));
+    }
+
+
+    private synchronized void fetched(LiveResponse input) {
+        if (!loaded || input.getRecords() == null || input.getColumns() == null)
+            return;
+
+        // Rows the database says match, anything not already held has entered
+        Layout layout = layout(input.getColumns());
+        LiveResponse changed = create(LiveResponse.Modify);
+        List<String> added = new ArrayList<>();
+        for (List<String> record : input.getRecords()) {
+            String id = record.get(input.getIdColumnIndex());
+            List<String> held = members.get(id);
+            List<String> row = merge(layout, record, held);
+            members.put(id, row);
+            changed.addRecord(row);
+            if (held == null) {
+                added.add(id);
+                entered.incrementAndGet();
+            }
+        }
+
+        if (changed.getRecords() != null)
+            observer.send(changed);
+        if (!added.isEmpty())
+            addedIds(added);
+    }
+
+
+    private void fetch(List<String> ids) {
+        // One query per IN sized slice so a large partial update stays under the placeholder limit
+        String idColumn = columns.get(idColumnIndex);
+        for (int i = 0; i < ids.size(); i += LivePredicate.MaxInListSize) {
+            List<String> slice = ids.subList(i, Math.min(ids.size(), i + LivePredicate.MaxInListSize));
+            fetches.incrementAndGet();
+            database.add(LiveDatabase.LiveEvent.create(table.getSchemaName(), table.getTableName(),
+                    LivePredicate.and(predicate, LivePredicate.in(idColumn, new ArrayList<>(slice))), fetcher));
+        }
+    }
+
+
+    private void leave(List<String> ids) {
+        LiveResponse response = new LiveResponse(LiveResponse.Delete, table.getSchemaName(), table.getTableName());
+        response.addColumn(columns.get(idColumnIndex));
+        for (String id : ids) {
+            members.remove(id);
+            response.addRecord(new ArrayList<>(Collections.singletonList(id)));
+        }
+        left.addAndGet(ids.size());
+        observer.send(response);
+        removedIds(ids);
+    }
+
+
+    private Layout layout(List<String> inputColumns) {
+        Layout layout = layouts.get(inputColumns);
+        if (layout != null)
+            return layout;
+
+        int[] positions = new int[inputColumns.size()];
+        Set<String> present = new HashSet<>();
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = -1;
+            for (int c = 0; c < columns.size(); c++) {
+                if (columns.get(c).equalsIgnoreCase(inputColumns.get(i))) {
+                    positions[i] = c;
+                    present.add(columns.get(c).toLowerCase());
+                }
+            }
+        }
+        boolean covers = true;
+        for (String column : predicate.getColumns())
+            covers &= present.contains(column.toLowerCase());
+
+        layout = new Layout(positions, present.size() == columns.size(), covers);
+        layouts.put(new ArrayList<>(inputColumns), layout);
+        return layout;
+    }
+
+
+    private List<String> merge(Layout layout, List<String> record, List<String> held) {
+        List<String> row = held != null ? new ArrayList<>(held)
+                : new ArrayList<>(Collections.nCopies(columns.size(), null));
+        for (int i = 0; i < layout.positions.length; i++) {
+            if (layout.positions[i] >= 0)
+                row.set(layout.positions[i], record.get(i));
+        }
+        return row;
+    }
+
+
+    private LiveResponse create(String action) {
+        LiveResponse response = new LiveResponse(action, table.getSchemaName(), table.getTableName());
+        response.setIdColumnIndex(idColumnIndex);
+        response.setColumns(columns);
+        return response;
+    }
+}
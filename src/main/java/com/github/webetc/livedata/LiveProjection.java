@@ -0,0 +1,106 @@
+package com.github.webetc.livedata;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LiveProjection implements LiveObserver {
+
+    private final LiveObserver observer;
+    private final List<String> columns;
+    private final Set<String> names = new HashSet<>();     // lower case
+    private final AtomicLong suppressed = new AtomicLong();
+
+
+    public LiveProjection(LiveObserver observer, Collection<String> columns) {
+        this.observer = observer;
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        for (String column : columns)
+            names.add(column.toLowerCase());
+    }
+
+
+    public LiveObserver getObserver() {
+        return observer;
+    }
+
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+
+    @Override
+    public void send(LiveResponse response) {
+        // Updates to columns the observer never sees don't wake it up
+        if (isIrrelevant(response)) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        observer.send(project(response, names));
+    }
+
+
+    private boolean isIrrelevant(LiveResponse response) {
+        if (!LiveResponse.Modify.equals(response.getAction()) || response.getChunk() != null)
+            return false;
+
+        // Inserts and rows whose changes aren't known always go through
+        Set<String> changed = response.getChangedColumns();
+        if (changed == null)
+            return false;
+        for (String column : changed) {
+            if (names.contains(column.toLowerCase()))
+                return false;
+        }
+        return true;
+    }
+
+
+    public static LiveResponse project(LiveResponse response, Collection<String> columns) {
+        // The id column is always kept, a response already within the columns is returned as is
+        if (columns == null || response.getColumns() == null)
+            return response;
+        Set<String> names = new HashSet<>();
+        for (String column : columns)
+            names.add(column.toLowerCase());
+
+        List<String> responseColumns = response.getColumns();
+        List<Integer> keep = new ArrayList<>();
+        for (int i = 0; i < responseColumns.size(); i++) {
+            if (i == response.getIdColumnIndex() || names.contains(responseColumns.get(i).toLowerCase()))
+                keep.add(i);
+        }
+        if (keep.size() == responseColumns.size())
+            return response;
+
+        LiveResponse projected = new LiveResponse(response.getAction(), response.getSchema(), response.getTable());
+        projected.setIdColumnIndex(Math.max(0, keep.indexOf(response.getIdColumnIndex())));
+        projected.setChunk(response.getChunk());
+        if (response.getSequence() != 0)
+            projected.setSequence(response.getSequence());
+        projected.setChangedColumns(response.getChangedColumns());
+        projected.largestId = response.largestId;
+
+        List<String> projectedColumns = new ArrayList<>(keep.size());
+        for (int i : keep)
+            projectedColumns.add(responseColumns.get(i));
+        projected.setColumns(projectedColumns);
+
+        if (response.getRecords() != null) {
+            List<List<String>> records = new ArrayList<>(response.getRecords().size());
+            for (List<String> record : response.getRecords()) {
+                List<String> row = new ArrayList<>(keep.size());
+                for (int i : keep)
+                    row.add(record.get(i));
+                records.add(row);
+            }
+            projected.setRecords(records);
+        }
+        return projected;
+    }
+}
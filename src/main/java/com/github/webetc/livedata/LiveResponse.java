@@ -2,6 +2,7 @@ package com.github.webetc.livedata;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 public class LiveResponse {
     public static final String Load = "L";      // empty and load new set of data
@@ -9,12 +10,20 @@ public class LiveResponse {
     public static final String Delete = "D";    // delete specific records
     public static final String Error = "E";     // error client should wipe data and restart
 
+    public static final String ChunkStart = "S";     // first part of a chunked load
+    public static final String ChunkContinue = "C";  // more rows of a chunked load
+    public static final String ChunkEnd = "F";       // last part of a chunked load
+
     private String action;
     private String schema;
     private String table;
     private int idColumnIndex = 0;
     private List<String> columns;
     private List<List<String>> records;
+    private String chunk = null;                // null unless part of a chunked load
+    private Long sequence = null;               // position in the table's changes, null until stamped
+    private transient LiveColumnBatch columnar = null;  // typed storage behind records when set
+    private transient Set<String> changedColumns = null;    // columns an update changed, null when unknown
     public transient long largestId = 0;
 
     public LiveResponse(String action, String schema, String tableName) {
@@ -57,15 +66,56 @@ public class LiveResponse {
         columns.add(columnName);
     }
 
+    public String getChunk() {
+        return chunk;
+    }
+
+    public void setChunk(String chunk) {
+        this.chunk = chunk;
+    }
+
+    public long getSequence() {
+        return sequence == null ? 0 : sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Set<String> getChangedColumns() {
+        return changedColumns;
+    }
+
+    public void setChangedColumns(Set<String> changedColumns) {
+        this.changedColumns = changedColumns;
+    }
+
+    public LiveColumnBatch getColumnar() {
+        return columnar;
+    }
+
+    public void setColumnar(LiveColumnBatch columnar) {
+        // Records become a read only string view over the typed columns
+        this.columnar = columnar;
+        this.records = columnar == null ? null : columnar.rows();
+    }
+
+    public boolean isColumnar() {
+        return columnar != null;
+    }
+
     public List<List<String>> getRecords() {
         return records;
     }
 
     public void setRecords(List<List<String>> records) {
+        this.columnar = null;
         this.records = records;
     }
 
     public void addRecord(List<String> record) {
+        if (columnar != null)
+            throw new IllegalStateException("Columnar response rows are added through its column batch");
         if (records == null)
             setRecords(new ArrayList<>());
 
@@ -0,0 +1,327 @@
+package com.github.webetc.livedata;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.*;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.parser.TokenMgrError;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.delete.Delete;
+import net.sf.jsqlparser.statement.insert.Insert;
+import net.sf.jsqlparser.statement.update.Update;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+class LiveStatementCache {
+
+    enum Type {
+        Update,
+        Insert,
+        Delete,
+        Other
+    }
+
+
+    // What the handlers need from a statement, values are literal slots or constants
+    static class Plan {
+        private static final Set<String> operators = new HashSet<>(Arrays.asList("=", "<>", "!=", "<", "<=", ">", ">="));
+
+        final Type type;
+        final String whereColumn;       // null unless the where is one column compared to values
+        final String whereOperator;     // a comparison operator or "in"
+        final int whereCount;           // where values come first, then update set values
+        final List<String> columns;     // update set columns
+        final int[] slots;              // literal index per value, -1 for a constant
+        final String[] constants;
+        final boolean[] known;          // false for values that aren't literals, e.g. n + 1 or NOW()
+
+        private Plan(Type type, String whereColumn, String whereOperator, List<Expression> whereValues,
+                     List<String> columns, List<Expression> setValues) {
+            this.type = type;
+            this.whereColumn = whereColumn;
+            this.whereOperator = whereOperator;
+            this.whereCount = whereValues.size();
+            this.columns = columns;
+
+            List<Expression> expressions = new ArrayList<>(whereValues);
+            expressions.addAll(setValues);
+            this.slots = new int[expressions.size()];
+            this.constants = new String[expressions.size()];
+            this.known = new boolean[expressions.size()];
+            for (int i = 0; i < expressions.size(); i++) {
+                Expression e = expressions.get(i);
+                slots[i] = -1;
+                if (JdbcNamedParameter.class.isInstance(e) && ((JdbcNamedParameter) e).getName().startsWith("p"))
+                    slots[i] = Integer.parseInt(((JdbcNamedParameter) e).getName().substring(1));
+                else
+                    constants[i] = getExpressionValue(e);
+                known[i] = slots[i] >= 0 || constants[i] != null || NullValue.class.isInstance(e);
+            }
+        }
+
+        static Plan create(Statement stmt) {
+            Expression where;
+            List<String> columns = Collections.emptyList();
+            List<Expression> setValues = Collections.emptyList();
+            Type type;
+            if (Update.class.isInstance(stmt)) {
+                Update update = (Update) stmt;
+                type = Type.Update;
+                where = update.getWhere();
+                columns = new ArrayList<>();
+                for (Column c : update.getColumns())
+                    columns.add(unquote(c.getColumnName()));
+                setValues = update.getExpressions();
+            } else if (Delete.class.isInstance(stmt)) {
+                type = Type.Delete;
+                where = ((Delete) stmt).getWhere();
+            } else if (Insert.class.isInstance(stmt)) {
+                return new Plan(Type.Insert, null, null, Collections.emptyList(), columns, setValues);
+            } else {
+                return new Plan(Type.Other, null, null, Collections.emptyList(), columns, setValues);
+            }
+
+            // Only column = value, other comparisons and IN lists can be resolved to rows
+            if (BinaryExpression.class.isInstance(where)) {
+                BinaryExpression compare = (BinaryExpression) where;
+                if (!compare.isNot() && Column.class.isInstance(compare.getLeftExpression())
+                        && operators.contains(compare.getStringExpression())) {
+                    return new Plan(type, unquote(((Column) compare.getLeftExpression()).getColumnName()),
+                            compare.getStringExpression(), Collections.singletonList(compare.getRightExpression()),
+                            columns, setValues);
+                }
+            } else if (InExpression.class.isInstance(where)) {
+                InExpression in = (InExpression) where;
+                if (!in.isNot() && Column.class.isInstance(in.getLeftExpression())
+                        && ExpressionList.class.isInstance(in.getRightItemsList())) {
+                    return new Plan(type, unquote(((Column) in.getLeftExpression()).getColumnName()), "in",
+                            ((ExpressionList) in.getRightItemsList()).getExpressions(), columns, setValues);
+                }
+            }
+            return new Plan(type, null, null, Collections.emptyList(), columns, setValues);
+        }
+
+        private static String unquote(String name) {
+            if (name.length() > 1 && name.charAt(0) == '`' && name.charAt(name.length() - 1) == '`')
+                return name.substring(1, name.length() - 1);
+            return name;
+        }
+    }
+
+
+    static class Parsed {
+        final Plan plan;
+        final List<String> literals;
+
+        Parsed(Plan plan, List<String> literals) {
+            this.plan = plan;
+            this.literals = literals;
+        }
+
+        List<String> whereValues() {
+            List<String> values = new ArrayList<>(plan.whereCount);
+            for (int i = 0; i < plan.whereCount; i++)
+                values.add(value(i));
+            return values;
+        }
+
+        String setValue(int column) {
+            return value(plan.whereCount + column);
+        }
+
+        boolean isSetKnown() {
+            for (int i = plan.whereCount; i < plan.known.length; i++) {
+                if (!plan.known[i])
+                    return false;
+            }
+            return true;
+        }
+
+        private String value(int position) {
+            int slot = plan.slots[position];
+            return slot >= 0 ? literals.get(slot) : plan.constants[position];
+        }
+    }
+
+
+    static final int DefaultSize = 512;
+    private static final Plan Unparseable = new Plan(Type.Other, null, null,
+            Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+    private final Map<String, Plan> plans;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    LiveStatementCache(int size) {
+        this.plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+
+    Parsed parse(String sql) throws JSQLParserException {
+        List<String> literals = new ArrayList<>();
+        String template = toTemplate(sql, literals);
+
+        Plan plan;
+        synchronized (plans) {
+            plan = plans.get(template);
+        }
+        if (plan != null && plan != Unparseable) {
+            hits.incrementAndGet();
+            return new Parsed(plan, literals);
+        }
+
+        misses.incrementAndGet();
+        if (plan == null) {
+            try {
+                plan = Plan.create(CCJSqlParserUtil.parse(template));
+            } catch (JSQLParserException | TokenMgrError e) {
+                // Literal positions the parser won't take a parameter in, e.g. limit
+                plan = Unparseable;
+            }
+            synchronized (plans) {
+                plans.put(template, plan);
+            }
+            if (plan != Unparseable)
+                return new Parsed(plan, literals);
+        }
+
+        // Full parse of the original, every value becomes a constant
+        return new Parsed(Plan.create(CCJSqlParserUtil.parse(sql)), Collections.emptyList());
+    }
+
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+
+    static String toTemplate(String sql, List<String> literals) {
+        // Literals become :pN parameters, their values formatted the way the parser would
+        StringBuilder template = new StringBuilder(sql.length());
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // Quotes inside are doubled or backslash escaped, the value keeps them as the parser would
+                int end = i + 1;
+                while (end < length && (sql.charAt(end) != '\'' || (end + 1 < length && sql.charAt(end + 1) == '\'')))
+                    end += sql.charAt(end) == '\'' || sql.charAt(end) == '\\' ? 2 : 1;
+                if (end >= length) {
+                    template.append(sql, i, length);
+                    break;
+                }
+                addLiteral(template, literals, sql.substring(i + 1, end));
+                i = end + 1;
+            } else if (c == '`' || c == '"') {
+                // Quoted identifiers stay as they are, a double quoted string may hold escaped quotes
+                int end = i + 1;
+                while (end < length && sql.charAt(end) != c)
+                    end += c == '"' && sql.charAt(end) == '\\' ? 2 : 1;
+                end = Math.min(end + 1, length);
+                template.append(sql, i, end);
+                i = end;
+            } else if (c == '#' || (c == '-' && sql.startsWith("--", i)
+                    && (i + 2 == length || Character.isWhitespace(sql.charAt(i + 2))))) {
+                // Line comments are dropped so nothing in them reads as a literal
+                int end = sql.indexOf('\n', i);
+                end = end < 0 ? length : end;
+                template.append(' ');
+                i = end;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+                template.append(sql, i, end);
+                i = end;
+            } else if (c >= '0' && c <= '9' && isNumberStart(sql, i)) {
+                int end = i;
+                boolean decimal = false;
+                while (end < length && Character.isDigit(sql.charAt(end)))
+                    end++;
+                if (end + 1 < length && sql.charAt(end) == '.' && Character.isDigit(sql.charAt(end + 1))) {
+                    decimal = true;
+                    end++;
+                    while (end < length && Character.isDigit(sql.charAt(end)))
+                        end++;
+                }
+                if (end < length && (isIdentifier(sql.charAt(end)) || sql.charAt(end) == '.')) {
+                    // Exponents, hex and the like are left for the parser
+                    while (end < length && isIdentifier(sql.charAt(end)))
+                        end++;
+                    template.append(sql, i, end);
+                    i = end;
+                    continue;
+                }
+                String number = sql.substring(i, end);
+                try {
+                    addLiteral(template, literals, decimal
+                            ? String.valueOf(Double.parseDouble(number))
+                            : String.valueOf(Long.parseLong(number)));
+                } catch (NumberFormatException e) {
+                    template.append(number);
+                }
+                i = end;
+            } else {
+                template.append(c);
+                i++;
+            }
+        }
+        return template.toString();
+    }
+
+
+    static String getExpressionValue(Expression e) {
+        if (StringValue.class.isInstance(e)) {
+            return (((StringValue) e).getValue());
+        } else if (LongValue.class.isInstance(e)) {
+            return (String.valueOf(((LongValue) e).getValue()));
+        } else if (DoubleValue.class.isInstance(e)) {
+            return (String.valueOf(((DoubleValue) e).getValue()));
+        } else if (DateValue.class.isInstance(e)) {
+            return (String.valueOf(((DateValue) e).getValue()));
+        } else if (TimestampValue.class.isInstance(e)) {
+            return (String.valueOf(((TimestampValue) e).getValue()));
+        }
+
+        return null;
+    }
+
+
+    private static void addLiteral(StringBuilder template, List<String> literals, String value) {
+        template.append(":p").append(literals.size());
+        literals.add(value);
+    }
+
+
+    private static boolean isNumberStart(String sql, int i) {
+        // Not part of a name and not negative, the parser keeps a sign as its own expression
+        if (i == 0)
+            return true;
+        char previous = sql.charAt(i - 1);
+        if (isIdentifier(previous) || previous == '.' || previous == ':')
+            return false;
+        int j = i - 1;
+        while (j >= 0 && Character.isWhitespace(sql.charAt(j)))
+            j--;
+        return j < 0 || sql.charAt(j) != '-';
+    }
+
+
+    private static boolean isIdentifier(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.webetc.livedata;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+class LiveStatementMatcher {
+
+    private static class Node {
+        char[] labels = new char[0];
+        Node[] children = new Node[0];
+        LiveTableKey table = null;      // set where a table name ends
+        Node tables = null;             // set where a schema name ends, root of the schema's tables
+
+        Node child(char c) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == c)
+                    return children[i];
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                labels = Arrays.copyOf(labels, labels.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                labels[labels.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+
+    // Schema names, each ending in a trie of that schema's watched table names, all lowercase
+    private final Node schemas = new Node();
+
+
+    LiveStatementMatcher(Collection<LiveTableKey> tables) {
+        for (LiveTableKey key : tables) {
+            Node schema = insert(schemas, key.getSchema());
+            if (schema.tables == null)
+                schema.tables = new Node();
+            insert(schema.tables, key.getTable()).table = key;
+        }
+    }
+
+
+    LiveTableKey match(String defaultSchema, String sql) {
+        // Watched table an update, insert or delete statement targets, null without allocating otherwise
+        int length = sql.length();
+        int i = skipSpace(sql, 0);
+        int next;
+        if ((next = keyword(sql, i, "update")) > 0) {
+            i = next;
+        } else if ((next = keyword(sql, i, "insert")) > 0) {
+            i = next;
+            next = keyword(sql, skipSpace(sql, i), "into");
+            if (next > 0)
+                i = next;
+        } else if ((next = keyword(sql, i, "delete")) > 0) {
+            i = keyword(sql, skipSpace(sql, next), "from");
+            if (i < 0)
+                return null;
+        } else {
+            return null;
+        }
+        i = skipSpace(sql, i);
+
+        // First name is the schema when qualified, otherwise a table in the default schema
+        Node asSchema = schemas;
+        Node asTable = null;
+        if (defaultSchema != null) {
+            Node schema = find(schemas, defaultSchema);
+            if (schema != null)
+                asTable = schema.tables;
+        }
+
+        boolean quoted = i < length && sql.charAt(i) == '`';
+        if (quoted)
+            i++;
+        int start = i;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (quoted ? c == '`' : !isIdentifier(c))
+                break;
+            c = Character.toLowerCase(c);
+            asSchema = asSchema != null ? asSchema.child(c) : null;
+            asTable = asTable != null ? asTable.child(c) : null;
+            if (asSchema == null && asTable == null)
+                return null;
+            i++;
+        }
+        if (i == start || (quoted && i == length))
+            return null;
+        if (quoted)
+            i++;
+
+        if (i < length && sql.charAt(i) == '.') {
+            if (asSchema == null || asSchema.tables == null)
+                return null;
+            return matchTable(sql, i + 1, asSchema.tables);
+        }
+        return asTable != null ? asTable.table : null;
+    }
+
+
+    private static LiveTableKey matchTable(String sql, int i, Node node) {
+        int length = sql.length();
+        boolean quoted = i < length && sql.charAt(i) == '`';
+        if (quoted)
+            i++;
+        int start = i;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (quoted ? c == '`' : !isIdentifier(c))
+                break;
+            node = node.child(Character.toLowerCase(c));
+            if (node == null)
+                return null;
+            i++;
+        }
+        if (i == start || (quoted && i == length))
+            return null;
+        return node.table;
+    }
+
+
+    private static int keyword(String sql, int i, String word) {
+        // End of the keyword at i, or -1 if it isn't there as a whole word
+        int end = i + word.length();
+        if (end > sql.length())
+            return -1;
+        for (int j = 0; j < word.length(); j++) {
+            if (Character.toLowerCase(sql.charAt(i + j)) != word.charAt(j))
+                return -1;
+        }
+        if (end < sql.length() && isIdentifier(sql.charAt(end)))
+            return -1;
+        return end;
+    }
+
+
+    private static int skipSpace(String sql, int i) {
+        while (i < sql.length() && Character.isWhitespace(sql.charAt(i)))
+            i++;
+        return i;
+    }
+
+
+    private static boolean isIdentifier(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+
+    private static Node find(Node node, String name) {
+        for (int i = 0; i < name.length() && node != null; i++)
+            node = node.child(Character.toLowerCase(name.charAt(i)));
+        return node;
+    }
+
+
+    private static Node insert(Node node, String name) {
+        for (int i = 0; i < name.length(); i++)
+            node = node.addChild(Character.toLowerCase(name.charAt(i)));
+        return node;
+    }
+}
@@ -0,0 +1,12 @@
+package com.github.webetc.livedata;
+
+public interface LiveSubscriber extends LiveObserver {
+
+    void onSubscribe(LiveSubscription subscription);
+
+
+    // The subscription has ended because of a misuse like requesting no demand
+    default void onError(Throwable error) {
+        error.printStackTrace();
+    }
+}
@@ -0,0 +1,8 @@
+package com.github.webetc.livedata;
+
+public interface LiveSubscription {
+
+    void request(long n);
+
+    void cancel();
+}
@@ -1,33 +1,39 @@
 package com.github.webetc.livedata;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 public class LiveTable extends LiveObservable {
 
+    public static final int DefaultHistorySize = 1024;     // recent changes kept for resuming observers
+
     private LiveDatabase database;
+    private LiveTableKey key;
     private String schemaName = null;
     private String tableName = null;
+    private volatile LiveTableReplica replica = null;
+    private LiveResponse[] history = new LiveResponse[DefaultHistorySize];
+    private long sequence = 0;
+    private long oldest = 1;        // oldest sequence still in history
 
 
-    public static synchronized LiveTable get(String schemaName, String tableName, LiveDatabase database) {
-        Iterator<LiveTable> iLiveTable = database.getTables();
-        while (iLiveTable.hasNext()) {
-            LiveTable table = iLiveTable.next();
-            if (table.getSchemaName().equals(schemaName.toLowerCase())
-                    && table.getTableName().equals(tableName.toLowerCase())) {
-                return table;
-            }
-        }
+    public static LiveTable get(String schemaName, String tableName, LiveDatabase database) {
+        LiveTable table = database.findTable(schemaName, tableName);
+        if (table != null)
+            return table;
 
-        return new LiveTable(schemaName, tableName, database);
+        // Another thread may have registered the table first
+        return database.add(new LiveTable(LiveTableKey.of(schemaName, tableName), database));
     }
 
 
-    private LiveTable(String schemaName, String tableName, LiveDatabase database) {
+    private LiveTable(LiveTableKey key, LiveDatabase database) {
         this.database = database;
-        this.schemaName = schemaName.toLowerCase();
-        this.tableName = tableName.toLowerCase();
-        database.add(this);
+        this.key = key;
+        this.schemaName = key.getSchema();
+        this.tableName = key.getTable();
     }
 
 
@@ -45,6 +51,99 @@ public class LiveTable extends LiveObservable {
     }
 
 
+    public LiveProjection addWatcher(LiveObserver o, boolean load, Collection<String> columns) {
+        // Only the id and these columns reach the observer, updates to other columns are dropped
+        LiveProjection projection = new LiveProjection(o, columns);
+        super.addWatcher(projection);
+        if (load)
+            database.add(LiveDatabase.LiveEvent.create(this.schemaName, this.tableName, null,
+                    projection.getColumns(), projection));
+        return projection;
+    }
+
+
+    public AsyncLiveObserver addAsyncWatcher(LiveObserver o, Executor executor,
+                                             int mailboxSize, AsyncLiveObserver.OverflowAction overflowAction) {
+        AsyncLiveObserver async = new AsyncLiveObserver(o, this, executor, mailboxSize, overflowAction);
+        addWatcher(async);
+        return async;
+    }
+
+
+    public void reload(LiveObserver o) {
+        database.add(LiveDatabase.LiveEvent.create(this.schemaName, this.tableName, o));
+    }
+
+
+    public void resume(LiveObserver o, long sequence) {
+        // Only the changes after sequence are sent, a full load when they are no longer kept
+        database.add(LiveDatabase.LiveEvent.resume(this.schemaName, this.tableName, sequence, o));
+    }
+
+
+    synchronized void record(LiveResponse response) {
+        response.setSequence(++sequence);
+        if (history.length > 0)
+            history[(int) (sequence % history.length)] = response;
+        oldest = Math.max(oldest, sequence - history.length + 1);
+    }
+
+
+    synchronized List<LiveResponse> since(long from) {
+        if (from < 0 || from > sequence || from + 1 < oldest)
+            return null;
+        List<LiveResponse> missed = new ArrayList<>((int) (sequence - from));
+        for (long s = from + 1; s <= sequence; s++)
+            missed.add(history[(int) (s % history.length)]);
+        return missed;
+    }
+
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+
+    public synchronized int getHistorySize() {
+        return history.length;
+    }
+
+
+    public synchronized void setHistorySize(int historySize) {
+        // Keep as much of the recent history as fits, growing doesn't bring back what was already dropped
+        LiveResponse[] resized = new LiveResponse[historySize];
+        long first = Math.max(oldest, sequence - historySize + 1);
+        for (long s = first; s <= sequence; s++)
+            resized[(int) (s % historySize)] = history[(int) (s % history.length)];
+        history = resized;
+        oldest = first;
+    }
+
+
+    public LiveTableReplica replicate(int maxRows, String... keyColumns) {
+        // Keep the table in memory, loads are served from it once its own load arrives
+        LiveTableReplica created = new LiveTableReplica(this, maxRows, keyColumns);
+        replica = created;
+        reload(created);
+        return created;
+    }
+
+
+    public LiveTableReplica getReplica() {
+        return replica;
+    }
+
+
+    public void dropReplica() {
+        replica = null;
+    }
+
+
+    public LiveTableKey getKey() {
+        return key;
+    }
+
+
     public String getSchemaName() {
         return schemaName;
     }
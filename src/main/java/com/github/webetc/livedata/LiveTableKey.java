@@ -0,0 +1,81 @@
+package com.github.webetc.livedata;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public final class LiveTableKey {
+
+    private static final ConcurrentMap<LiveTableKey, LiveTableKey> interned = new ConcurrentHashMap<>();
+
+    private final String schema;
+    private final String table;
+    private final int hash;
+
+
+    public static LiveTableKey of(String schema, String table) {
+        LiveTableKey key = lookup(schema, table);
+        LiveTableKey existing = interned.get(key);
+        if (existing != null)
+            return existing;
+
+        key = new LiveTableKey(schema.toLowerCase(), table.toLowerCase());
+        existing = interned.putIfAbsent(key, key);
+        return existing != null ? existing : key;
+    }
+
+
+    static LiveTableKey lookup(String schema, String table) {
+        // Case insensitive probe so hot paths don't need to lowercase
+        return new LiveTableKey(schema, table);
+    }
+
+
+    private LiveTableKey(String schema, String table) {
+        this.schema = schema;
+        this.table = table;
+        this.hash = 31 * hashIgnoreCase(schema) + hashIgnoreCase(table);
+    }
+
+
+    public String getSchema() {
+        return schema;
+    }
+
+
+    public String getTable() {
+        return table;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!LiveTableKey.class.isInstance(o))
+            return false;
+        LiveTableKey other = (LiveTableKey) o;
+        return hash == other.hash
+                && table.equalsIgnoreCase(other.table)
+                && schema.equalsIgnoreCase(other.schema);
+    }
+
+
+    @Override
+    public String toString() {
+        return schema + "." + table;
+    }
+
+
+    private static int hashIgnoreCase(String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++)
+            h = 31 * h + Character.toLowerCase(s.charAt(i));
+        return h;
+    }
+}
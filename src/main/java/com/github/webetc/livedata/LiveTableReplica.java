@@ -0,0 +1,359 @@
+package com.github.webetc.livedata;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LiveTableReplica implements LiveObserver {
+
+    public enum State {
+        Loading,    // waiting on its load, requests still go to the database
+        Ready,      // serving loads from memory
+        Overflow    // grew past its row limit and stopped replicating
+    }
+
+
+    public static final int DefaultMaxRows = 100000;
+
+    private final LiveTable table;
+    private final int maxRows;
+    private final String[] keyColumns;
+
+    // Only touched on the table's dispatch lane
+    private List<String> columns;
+    private int idColumnIndex;
+    private Map<String, List<String>> rows = new LinkedHashMap<>();
+    private int[] indexColumns = new int[0];
+    private List<Map<String, Set<String>>> indexes = new ArrayList<>();     // keyed by LivePredicate.normalize
+
+    private volatile State state = State.Loading;
+    private volatile int rowCount = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+
+    LiveTableReplica(LiveTable table, int maxRows, String... keyColumns) {
+        this.table = table;
+        this.maxRows = maxRows;
+        this.keyColumns = keyColumns;
+    }
+
+
+    @Override
+    public void send(LiveResponse response) {
+        // Its own loads arrive here, table changes come through apply
+        apply(response);
+    }
+
+
+    void apply(LiveResponse response) {
+        String action = response.getAction();
+        if (response.getChunk() != null) {
+            if (LiveResponse.ChunkStart.equals(response.getChunk()))
+                reset(response);
+            if (state == State.Loading)
+                addAll(response);
+            if (LiveResponse.ChunkEnd.equals(response.getChunk()) && state == State.Loading)
+                state = State.Ready;
+        } else if (LiveResponse.Load.equals(action)) {
+            reset(response);
+            addAll(response);
+            if (state == State.Loading)
+                state = State.Ready;
+        } else if (LiveResponse.Error.equals(action) && state != State.Overflow) {
+            // Also a failed load of its own, which would otherwise leave it loading for good
+            reload();
+        } else if (state != State.Ready) {
+            // Changes before the load are already part of it
+        } else if (LiveResponse.Delete.equals(action)) {
+            if (response.getRecords() != null) {
+                for (List<String> record : response.getRecords())
+                    remove(record.get(response.getIdColumnIndex()));
+            }
+        } else if (LiveResponse.Modify.equals(action)) {
+            if (!update(response))
+                reload();
+        }
+        rowCount = rows.size();
+    }
+
+
+    LiveResponse query(LivePredicate where) {
+        if (state != State.Ready) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (where == null) {
+            LiveResponse response = create(LiveResponse.Load);
+            for (List<String> row : rows.values())
+                response.addRecord(row);
+            hits.incrementAndGet();
+            return response;
+        }
+
+        // Key lookups on the id or an indexed column, anything else goes to the database
+        String column;
+        List<Object> values;
+        if (LivePredicate.Comparison.class.isInstance(where) && "=".equals(((LivePredicate.Comparison) where).operator)) {
+            column = ((LivePredicate.Comparison) where).column;
+            values = Collections.singletonList(((LivePredicate.Comparison) where).value);
+        } else if (LivePredicate.In.class.isInstance(where)) {
+            column = ((LivePredicate.In) where).column;
+            values = ((LivePredicate.In) where).values;
+        } else {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        Set<String> ids = new LinkedHashSet<>();
+        int columnIndex = indexOf(column);
+        if (columnIndex == idColumnIndex) {
+            // Rows are held by their exact id, anything the database might match differently goes to it
+            for (Object value : values) {
+                String id = String.valueOf(value);
+                if (!isExact(value) || !id.equals(LivePredicate.normalize(value))) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+                ids.add(id);
+            }
+        } else {
+            int index = -1;
+            for (int i = 0; i < indexColumns.length; i++) {
+                if (indexColumns[i] == columnIndex)
+                    index = i;
+            }
+            if (columnIndex < 0 || index < 0) {
+                misses.incrementAndGet();
+                return null;
+            }
+            for (Object value : values) {
+                if (!isExact(value)) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+                Set<String> matches = indexes.get(index).get(LivePredicate.normalize(value));
+                if (matches != null)
+                    ids.addAll(matches);
+            }
+        }
+
+        LiveResponse response = create(LiveResponse.Modify);
+        for (String id : ids) {
+            List<String> row = rows.get(id);
+            if (row != null)
+                response.addRecord(row);
+        }
+        hits.incrementAndGet();
+        return response;
+    }
+
+
+    public LiveTable getTable() {
+        return table;
+    }
+
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+
+    public State getState() {
+        return state;
+    }
+
+
+    public boolean isReady() {
+        return state == State.Ready;
+    }
+
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+
+    private void reload() {
+        // Lost track of the table, drop the rows and load it again
+        state = State.Loading;
+        columns = null;
+        rows = new LinkedHashMap<>();
+        reloads.incrementAndGet();
+        table.reload(this);
+    }
+
+
+    private void reset(LiveResponse response) {
+        if (state == State.Overflow)
+            return;
+        state = State.Loading;
+        rows = new LinkedHashMap<>();
+        setColumns(response);
+    }
+
+
+    private void setColumns(LiveResponse response) {
+        columns = response.getColumns() != null ? new ArrayList<>(response.getColumns()) : null;
+        idColumnIndex = response.getIdColumnIndex();
+
+        List<Integer> found = new ArrayList<>();
+        for (String keyColumn : keyColumns) {
+            int i = indexOf(keyColumn);
+            if (i >= 0 && i != idColumnIndex && !found.contains(i))
+                found.add(i);
+        }
+        indexColumns = new int[found.size()];
+        indexes = new ArrayList<>();
+        for (int i = 0; i < indexColumns.length; i++) {
+            indexColumns[i] = found.get(i);
+            indexes.add(new HashMap<>());
+        }
+    }
+
+
+    private void addAll(LiveResponse response) {
+        if (response.getRecords() == null)
+            return;
+        for (List<String> record : response.getRecords())
+            put(record.get(idColumnIndex), record);
+    }
+
+
+    private boolean update(LiveResponse response) {
+        if (response.getRecords() == null)
+            return true;
+        if (response.getColumns() == null)
+            return false;
+        if (columns == null && rows.isEmpty())
+            setColumns(response);     // loaded while the table was empty
+
+        // Position of each response column in the replicated row
+        int[] positions = new int[response.getColumns().size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = indexOf(response.getColumns().get(i));
+            if (positions[i] < 0)
+                return false;
+        }
+        boolean complete = positions.length == columns.size();
+
+        // A changed column without a value was set to something only the database knows, e.g. n + 1
+        if (response.getChangedColumns() != null) {
+            for (String changed : response.getChangedColumns()) {
+                boolean found = false;
+                for (String column : response.getColumns())
+                    found |= column.equalsIgnoreCase(changed);
+                if (!found)
+                    return false;
+            }
+        }
+
+        for (List<String> record : response.getRecords()) {
+            String id = record.get(response.getIdColumnIndex());
+            List<String> existing = rows.get(id);
+            if (existing == null && !complete)
+                return false;
+
+            // Rows may be shared with observers so a changed row is always a new list
+            List<String> row = existing != null ? new ArrayList<>(existing)
+                    : new ArrayList<>(Collections.nCopies(columns.size(), null));
+            for (int i = 0; i < positions.length; i++)
+                row.set(positions[i], record.get(i));
+            put(id, row);
+        }
+        return true;
+    }
+
+
+    private void put(String id, List<String> row) {
+        if (state == State.Overflow)
+            return;
+
+        List<String> previous = rows.put(id, row);
+        for (int i = 0; i < indexColumns.length; i++) {
+            if (previous != null)
+                unindex(i, previous.get(indexColumns[i]), id);
+            String value = row.get(indexColumns[i]);
+            if (value != null)
+                indexes.get(i).computeIfAbsent(LivePredicate.normalize(value), k -> new LinkedHashSet<>()).add(id);
+        }
+
+        if (rows.size() > maxRows) {
+            // Too big to keep, every load goes back to the database
+            state = State.Overflow;
+            rows = new LinkedHashMap<>();
+            indexes = new ArrayList<>();
+            indexColumns = new int[0];
+        }
+    }
+
+
+    private void remove(String id) {
+        List<String> previous = rows.remove(id);
+        if (previous == null)
+            return;
+        for (int i = 0; i < indexColumns.length; i++)
+            unindex(i, previous.get(indexColumns[i]), id);
+    }
+
+
+    private void unindex(int index, String value, String id) {
+        if (value == null)
+            return;
+        String key = LivePredicate.normalize(value);
+        Set<String> ids = indexes.get(index).get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty())
+                indexes.get(index).remove(key);
+        }
+    }
+
+
+    private static boolean isExact(Object value) {
+        // Rows are indexed by their text, numbers and numbers written another way, e.g. 007, go to the database
+        if (!String.class.isInstance(value))
+            return false;
+        try {
+            return new BigDecimal(((String) value).trim()).stripTrailingZeros().toPlainString().equals(value);
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+
+    private LiveResponse create(String action) {
+        LiveResponse response = new LiveResponse(action, table.getSchemaName(), table.getTableName());
+        response.setIdColumnIndex(idColumnIndex);
+        response.setColumns(columns);
+        return response;
+    }
+
+
+    private int indexOf(String column) {
+        if (columns == null)
+            return -1;
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).equalsIgnoreCase(column))
+                return i;
+        }
+        return -1;
+    }
+}
@@ -1,41 +1,301 @@
 package com.github.webetc.livedata;
 
-import net.sf.jsqlparser.expression.*;
-import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
-import net.sf.jsqlparser.parser.CCJSqlParserUtil;
-import net.sf.jsqlparser.schema.Column;
-import net.sf.jsqlparser.statement.delete.Delete;
-import net.sf.jsqlparser.statement.insert.Insert;
-import net.sf.jsqlparser.statement.update.Update;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class LiveTransactionDatabase extends LiveDatabase {
-    private List<LiveResponse> modifications = null;
-    private List<LiveResponse> inserts = null;
+
+    private static class CommitGroup {
+        final List<LiveResponse> responses = new ArrayList<>();
+        final Map<LiveTableKey, LiveResponse> inserts = new HashMap<>();   // insert placeholder per table
+        final List<Runnable> dispatched = new ArrayList<>();                // run once the group is sent
+    }
+
+
+    private static class PendingStatement {
+        final LiveTableKey table;
+        final String sql;
+        final Future<LiveStatementCache.Parsed> parsed;     // null when parsed during assembly
+        final LiveResponse row;             // complete row image, no SQL to parse
+        final boolean insert;               // row image of newly inserted rows
+
+        PendingStatement(LiveTableKey table, String sql, Future<LiveStatementCache.Parsed> parsed,
+                         LiveResponse row, boolean insert) {
+            this.table = table;
+            this.sql = sql;
+            this.parsed = parsed;
+            this.row = row;
+            this.insert = insert;
+        }
+    }
+
+
+    public static final long DefaultInsertGroupWindow = 0;     // ms to group insert re-queries, 0 queries every commit
+    public static final int DefaultParseThreads = 2;            // 0 parses on the assembler thread
+    public static final int DefaultAssembleQueueCapacity = 64;  // committed transactions waiting to be assembled
+    public static final int DefaultParseQueueCapacity = 1024;   // statements waiting for a parse thread
+
+    private List<PendingStatement> pending = null;              // binlog thread only, current transaction in order
+    private final ThreadPoolExecutor assembler;
+    private final AtomicLong submitBlocked = new AtomicLong();
+    private final LiveStatementCache statementCache = new LiveStatementCache(LiveStatementCache.DefaultSize);
+    private volatile ExecutorService parseExecutor = null;
+    private volatile int parseThreads = 0;
+
+    // Assembler thread only, the committed transaction being turned into responses
+    private LiveChangeSet changes = null;                       // id keyed rows, merged per transaction
+    private List<LiveResponse> modifications = null;            // anything that can't be keyed, e.g. errors
+    private Map<LiveTableKey, LiveResponse> inserts = null;     // insert placeholder per table
     private List<LiveResponse> deletes = null;
+    private final Deque<CommitGroup> commitGroups = new ArrayDeque<>();     // committed but not yet sent, oldest first
+    private final ScheduledExecutorService groupExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "LiveDatabase-inserts");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong coalescedInserts = new AtomicLong();
+    private final AtomicLong compactedChanges = new AtomicLong();
+    private volatile long insertGroupWindow = DefaultInsertGroupWindow;
+    private CommitGroup openGroup = null;      // newest group still taking commits, guarded by commitGroups
+    private volatile LiveStatementMatcher statementMatcher = new LiveStatementMatcher(Collections.emptyList());
 
 
     public LiveTransactionDatabase() {
-        super();
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    public LiveTransactionDatabase(int dispatchThreads) {
+        this(dispatchThreads, DefaultQueueCapacity, OverflowPolicy.Block);
+    }
+
+
+    public LiveTransactionDatabase(int dispatchThreads, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this(dispatchThreads, queueCapacity, overflowPolicy, DefaultAssembleQueueCapacity);
+    }
+
+
+    public LiveTransactionDatabase(int dispatchThreads, int queueCapacity, OverflowPolicy overflowPolicy,
+                                   int assembleQueueCapacity) {
+        super(dispatchThreads, queueCapacity, overflowPolicy);
+
+        // Bounded so a lane that is full holds up the binlog reader through the assembler
+        assembler = createExecutor(1, assembleQueueCapacity, "LiveDatabase-assemble");
+        setParseThreads(DefaultParseThreads);
+    }
+
+
+    @Override
+    public void close() throws Exception {
+        super.close();
+        assembler.shutdownNow();
+        groupExecutor.shutdownNow();
+        setParseThreads(0);
+    }
+
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+
+    public synchronized void setParseThreads(int parseThreads) {
+        // Statements already handed to the old pool still finish there
+        ExecutorService old = parseExecutor;
+        parseExecutor = parseThreads > 0
+                ? createExecutor(parseThreads, DefaultParseQueueCapacity, "LiveDatabase-parse") : null;
+        this.parseThreads = parseThreads;
+        if (old != null)
+            old.shutdown();
+    }
+
+
+    @Override
+    protected void tablesChanged() {
+        synchronized (liveTables) {
+            statementMatcher = new LiveStatementMatcher(liveTables.keySet());
+        }
+    }
+
+
+    public long getStatementCacheHitCount() {
+        return statementCache.getHitCount();
+    }
+
+
+    public long getStatementCacheMissCount() {
+        return statementCache.getMissCount();
+    }
+
+
+    public long getInsertGroupWindow() {
+        return insertGroupWindow;
+    }
+
+
+    public void setInsertGroupWindow(long insertGroupWindow) {
+        this.insertGroupWindow = insertGroupWindow;
+    }
+
+
+    public long getCoalescedInsertCount() {
+        return coalescedInserts.get();
+    }
+
+
+    public long getCompactedChangeCount() {
+        return compactedChanges.get();
+    }
+
+
+    public int getAssembleQueueDepth() {
+        return assembler.getQueue().size();
+    }
+
+
+    public long getSubmitBlockedCount() {
+        return submitBlocked.get();
+    }
+
+
+    private ThreadPoolExecutor createExecutor(int threads, int queueCapacity, String name) {
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("Queue capacity must be at least 1");
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }, this::blockCaller);
+    }
+
+
+    private void blockCaller(Runnable task, ThreadPoolExecutor executor) {
+        // Full queue waits for room on the submitting thread, the same as the Block overflow policy
+        if (executor.isShutdown())
+            throw new RejectedExecutionException("Executor is shut down");
+        submitBlocked.incrementAndGet();
+        BlockingQueue<Runnable> queue = executor.getQueue();
+        try {
+            while (!queue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+                if (executor.isShutdown())
+                    throw new RejectedExecutionException("Executor is shut down");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted waiting for queue space");
+        }
+
+        // Shut down while waiting, its workers may be gone so a task still queued runs here
+        if (executor.isShutdown() && queue.remove(task))
+            task.run();
     }
 
 
     protected void startTransaction() {
-        modifications = new ArrayList<>();
-        inserts = new ArrayList<>();
-        deletes = new ArrayList<>();
+        pending = new ArrayList<>();
     }
 
 
     protected void endTransaction(boolean commit) {
-        if (!commit) {
-            modifications = null;
-            inserts = null;
-            deletes = null;
+        endTransaction(commit, null);
+    }
+
+
+    protected void endTransaction(boolean commit, Runnable dispatched) {
+        // dispatched runs once the transaction's responses are handed on, in commit order
+        List<PendingStatement> statements = pending;
+        pending = null;
+        if (!commit || statements == null)
+            statements = Collections.emptyList();
+        if (statements.isEmpty() && dispatched == null)
             return;
+
+        // Transactions are assembled one at a time in commit order, waiting for their parses
+        List<PendingStatement> transaction = statements;
+        try {
+            assembler.execute(() -> assemble(transaction, dispatched));
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+
+
+    private void assemble(List<PendingStatement> statements, Runnable dispatched) {
+        changes = new LiveChangeSet();
+        modifications = new ArrayList<>();
+        inserts = new LinkedHashMap<>();
+        deletes = new ArrayList<>();
+
+        for (PendingStatement ps : statements) {
+            if (ps.row != null) {
+                if (changes.add(ps.row, ps.insert))
+                    continue;
+                if (LiveResponse.Delete.equals(ps.row.getAction()))
+                    deletes.add(ps.row);
+                else
+                    modifications.add(ps.row);
+                continue;
+            }
+
+            try {
+                LiveStatementCache.Parsed stmt = ps.parsed != null ? ps.parsed.get() : statementCache.parse(ps.sql);
+                if (stmt.plan.type == LiveStatementCache.Type.Update) {
+                    handleUpdate(ps.table, stmt);
+                } else if (stmt.plan.type == LiveStatementCache.Type.Insert) {
+                    handleInsert(ps.table);
+                } else if (stmt.plan.type == LiveStatementCache.Type.Delete) {
+                    handleDeletes(ps.table, stmt);
+                }
+            } catch (ExecutionException e) {
+                System.err.println("Exception:\n" + ps.sql + "\n" + e.getCause().getMessage());
+                e.getCause().printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("Exception:\n" + ps.sql + "\n" + e.getMessage());
+                e.printStackTrace();
+            } catch (Error er) {
+                System.err.println("ERROR:\n" + ps.sql + "\n" + er.getMessage());
+            }
+        }
+
+        // Rows changed many times go out once, in their final state
+        modifications.addAll(0, changes.getModifications());
+        deletes.addAll(0, changes.getDeletes());
+        compactedChanges.addAndGet(changes.getMergedCount());
+        changes = null;
+
+        commit(dispatched);
+    }
+
+
+    private void commit(Runnable dispatched) {
+        // Once a group is open every later commit joins it so nothing overtakes its inserts
+        synchronized (commitGroups) {
+            if (!commitGroups.isEmpty() || (insertGroupWindow > 0 && !inserts.isEmpty())) {
+                if (openGroup == null) {
+                    openGroup = new CommitGroup();
+                    commitGroups.addLast(openGroup);
+                    groupExecutor.schedule(this::flushCommitGroup, insertGroupWindow, TimeUnit.MILLISECONDS);
+                }
+                CommitGroup group = openGroup;
+                group.responses.addAll(modifications);
+                for (Map.Entry<LiveTableKey, LiveResponse> insert : inserts.entrySet()) {
+                    LiveTableKey key = insert.getKey();
+                    LiveResponse i = insert.getValue();
+                    if (group.inserts.putIfAbsent(key, i) == null)
+                        group.responses.add(i);
+                    else
+                        coalescedInserts.incrementAndGet();
+                }
+                group.responses.addAll(deletes);
+                if (dispatched != null)
+                    group.dispatched.add(dispatched);
+                return;
+            }
         }
 
         List<LiveResponse> responses = new ArrayList<>();
@@ -43,154 +303,172 @@ public abstract class LiveTransactionDatabase extends LiveDatabase {
         responses.addAll(modifications);
 
         // Collect inserts
-        for (LiveResponse i : inserts) {
+        for (LiveResponse i : inserts.values()) {
             responses.add(getInserted(i.getSchema(), i.getTable()));
         }
 
         responses.addAll(deletes);
 
-        add(LiveEvent.create(responses));
+        if (!responses.isEmpty())
+            add(LiveEvent.create(responses));
+        if (dispatched != null)
+            dispatched.run();
     }
 
 
-    protected void processTransactionSQL(String schema, String sql) {
+    private void flushCommitGroup() {
+        CommitGroup group;
+        synchronized (commitGroups) {
+            group = commitGroups.peekFirst();
+            if (group == openGroup)
+                openGroup = null;
+        }
+        if (group == null)
+            return;
+
         try {
-            String sqlLower = sql.substring(0, Math.min(100, sql.length() - 1)).toLowerCase();
-            boolean good = false;
-            Iterator<LiveTable> iLiveTable = getTables();
-            while (iLiveTable.hasNext()) {
-                LiveTable l = iLiveTable.next();
-                if (schema.toLowerCase().equals(l.getSchemaName())
-                        && sqlLower.startsWith("update " + l.getTableName()))
-                    good = true;
-                else if (schema.toLowerCase().equals(l.getSchemaName())
-                        && sqlLower.startsWith("insert into " + l.getTableName()))
-                    good = true;
-                else if (schema.toLowerCase().equals(l.getSchemaName())
-                        && sqlLower.startsWith("delete from " + l.getTableName()))
-                    good = true;
+            // One query per table, placed where the group's first insert into that table was
+            List<LiveResponse> responses = new ArrayList<>();
+            Set<LiveResponse> placeholders = Collections.newSetFromMap(new IdentityHashMap<>());
+            placeholders.addAll(group.inserts.values());
+            for (LiveResponse response : group.responses) {
+                if (placeholders.contains(response))
+                    responses.add(getInserted(response.getSchema(), response.getTable()));
+                else
+                    responses.add(response);
             }
 
-            // Avoid parsing and checking things not being watched
-            if (good) {
-                net.sf.jsqlparser.statement.Statement stmt = CCJSqlParserUtil.parse(sql);
-                if (Update.class.isInstance(stmt)) {
-                    handleUpdate(schema, (Update) stmt);
-                } else if (Insert.class.isInstance(stmt)) {
-                    handleInsert(schema, (Insert) stmt);
-                } else if (Delete.class.isInstance(stmt)) {
-                    handleDeletes(schema, (Delete) stmt);
-                }
-            }
+            add(LiveEvent.create(responses));
+            for (Runnable dispatched : group.dispatched)
+                dispatched.run();
         } catch (Exception e) {
-            System.err.println("Exception:\n" + sql + "\n" + e.getMessage());
             e.printStackTrace();
-        } catch (Error er) {
-            System.err.println("ERROR:\n" + sql + "\n" + er.getMessage());
+        } finally {
+            // Only removed once sent so commits arriving meanwhile queue behind it
+            synchronized (commitGroups) {
+                commitGroups.pollFirst();
+            }
         }
     }
 
 
-    private void handleUpdate(String schema, Update updateStmt) {
-        String tableName = updateStmt.getTable().getName();
-        LiveResponse response = new LiveResponse(LiveResponse.Modify, schema, tableName);
-        List<String> row = new ArrayList<>();
+    protected void processTransactionSQL(String schema, String sql) {
+        // Avoid parsing and checking things not being watched
+        LiveTableKey table = statementMatcher.match(schema, sql);
+        if (table == null)
+            return;
+        if (pending == null)
+            startTransaction();
+
+        // Parse starts now on the pool, the binlog thread moves straight on to the next event
+        Future<LiveStatementCache.Parsed> parsed = null;
+        ExecutorService parser = parseExecutor;
+        if (parser != null) {
+            try {
+                parsed = parser.submit(() -> statementCache.parse(sql));
+            } catch (RejectedExecutionException e) {
+                // Pool being replaced, parse during assembly instead
+            }
+        }
+        pending.add(new PendingStatement(table, sql, parsed, null, false));
+    }
 
-        // ID
-        Expression where = updateStmt.getWhere();
-        if (EqualsTo.class.isInstance(where)) {
-            EqualsTo equalsTo = (EqualsTo) where;
-            Expression left = equalsTo.getLeftExpression();
-            Expression right = equalsTo.getRightExpression();
-            if (Column.class.isInstance(left)) {
-                Column column = (Column) left;
-                response.addColumn(column.getColumnName());
-                row.add(getExpressionValue(right));
 
-                // other columns
-                List<Column> columns = updateStmt.getColumns();
-                for (Column c : columns) {
-                    response.addColumn(c.getColumnName());
-                }
+    protected void processRowMutation(LiveResponse response) {
+        processRowMutation(response, false);
+    }
 
-                // other values
-                List<Expression> expressions = updateStmt.getExpressions();
-                for (Expression e : expressions) {
-                    row.add(getExpressionValue(e));
-                }
 
-                response.addRecord(row);
+    protected void processRowMutation(LiveResponse response, boolean insert) {
+        // Row images are already complete so no parsing or re-querying needed
+        if (pending == null)
+            startTransaction();
+        pending.add(new PendingStatement(null, null, null, response, insert));
+    }
 
-//                compress(modifications, response);
-                modifications.add(response);
+
+    private void handleUpdate(LiveTableKey table, LiveStatementCache.Parsed stmt) {
+        LiveStatementCache.Plan plan = stmt.plan;
+        List<String> whereValues = stmt.whereValues();
+
+        if (isIdMatch(table, plan, whereValues) && stmt.isSetKnown()) {
+            // Rows are known by id so the set values go straight out, one row per id
+            LiveResponse response = new LiveResponse(LiveResponse.Modify, table.getSchema(), table.getTable());
+            response.addColumn(plan.whereColumn);
+            for (String column : plan.columns)
+                response.addColumn(column);
+            for (String id : whereValues) {
+                List<String> row = new ArrayList<>();
+                row.add(id);
+                for (int i = 0; i < plan.columns.size(); i++)
+                    row.add(stmt.setValue(i));
+                response.addRecord(row);
             }
+            response.setChangedColumns(new HashSet<>(plan.columns));
+            changes.add(response, false);
+        } else if (isResolvable(plan, whereValues) && !containsIgnoreCase(plan.columns, plan.whereColumn)) {
+            // The where still matches the updated rows so re-query them, also for set values that aren't literals
+            LiveResponse response = getData(table.getSchema(), table.getTable(), getPredicate(plan, whereValues));
+            response.setChangedColumns(new HashSet<>(plan.columns));
+            if (!changes.add(response, false))
+                modifications.add(response);
+        } else {
+            modifications.add(new LiveResponse(LiveResponse.Error, table.getSchema(), table.getTable()));
         }
     }
 
 
-    private void handleInsert(String schema, Insert insertStmt) {
-        String tableName = insertStmt.getTable().getName();
-        LiveResponse response = new LiveResponse(LiveResponse.Modify, schema, tableName);
-
-        compress(inserts, response);
+    private void handleInsert(LiveTableKey table) {
+        // One re-query per table covers every insert into it
+        inserts.putIfAbsent(table, new LiveResponse(LiveResponse.Modify, table.getSchema(), table.getTable()));
     }
 
 
-    private void handleDeletes(String schema, Delete deleteStmt) {
-        String tableName = deleteStmt.getTable().getName();
-        LiveResponse response = new LiveResponse(LiveResponse.Delete, schema, tableName);
-        List<String> row = new ArrayList<>();
+    private void handleDeletes(LiveTableKey table, LiveStatementCache.Parsed stmt) {
+        List<String> whereValues = stmt.whereValues();
 
-        Expression where = deleteStmt.getWhere();
-        if (EqualsTo.class.isInstance(where)) {
-            EqualsTo equalsTo = (EqualsTo) where;
-            Expression left = equalsTo.getLeftExpression();
-            Expression right = equalsTo.getRightExpression();
-            if (Column.class.isInstance(left)) {
-                Column column = (Column) left;
-                response.addColumn(column.getColumnName());
-                row.add(getExpressionValue(right));
-                response.addRecord(row);
+        if (isIdMatch(table, stmt.plan, whereValues)) {
+            LiveResponse response = new LiveResponse(LiveResponse.Delete, table.getSchema(), table.getTable());
+            response.addColumn(stmt.plan.whereColumn);
+            for (String id : whereValues)
+                response.addRecord(new ArrayList<>(Collections.singletonList(id)));
 
-                compress(deletes, response);
-            }
+            changes.add(response, false);
+        } else {
+            // Rows are already gone so there's nothing left to query, watchers reload instead
+            deletes.add(new LiveResponse(LiveResponse.Error, table.getSchema(), table.getTable()));
         }
     }
 
 
-    private void compress(List<LiveResponse> responses, LiveResponse response) {
-        for (LiveResponse lr : responses) {
-            if (lr.getSchema().equals(response.getSchema())
-                    && lr.getTable().equals(response.getTable())) {
-                if (lr.getRecords() != null || response.getRecords() != null) {
-                    if (lr.getRecords() == null)
-                        lr.setRecords(new ArrayList<>());
-                    if (response.getRecords() == null)
-                        return;
-                    lr.getRecords().addAll(response.getRecords());
-                }
-                return;
-            }
-        }
+    private boolean isIdMatch(LiveTableKey table, LiveStatementCache.Plan plan, List<String> whereValues) {
+        if (!isResolvable(plan, whereValues))
+            return false;
+        if (!"=".equals(plan.whereOperator) && !"in".equals(plan.whereOperator))
+            return false;
+        String idCol = getPrimaryKey(table.getSchema(), table.getTable());
+        return plan.whereColumn.equalsIgnoreCase(idCol);
+    }
+
 
-        // No match so just add
-        responses.add(response);
+    private boolean isResolvable(LiveStatementCache.Plan plan, List<String> whereValues) {
+        // Values that aren't literals, e.g. other columns or functions, can't be matched
+        return plan.whereColumn != null && !whereValues.isEmpty() && !whereValues.contains(null);
     }
 
 
-    private String getExpressionValue(Expression e) {
-        if (StringValue.class.isInstance(e)) {
-            return (((StringValue) e).getValue());
-        } else if (LongValue.class.isInstance(e)) {
-            return (String.valueOf(((LongValue) e).getValue()));
-        } else if (DoubleValue.class.isInstance(e)) {
-            return (String.valueOf(((DoubleValue) e).getValue()));
-        } else if (DateValue.class.isInstance(e)) {
-            return (String.valueOf(((DateValue) e).getValue()));
-        } else if (TimestampValue.class.isInstance(e)) {
-            return (String.valueOf(((TimestampValue) e).getValue()));
-        }
+    private LivePredicate getPredicate(LiveStatementCache.Plan plan, List<String> whereValues) {
+        if ("in".equals(plan.whereOperator))
+            return LivePredicate.in(plan.whereColumn, whereValues);
+        return LivePredicate.compare(plan.whereColumn, plan.whereOperator, whereValues.get(0));
+    }
 
-        return null;
+
+    private static boolean containsIgnoreCase(List<String> values, String value) {
+        for (String v : values) {
+            if (v.equalsIgnoreCase(value))
+                return true;
+        }
+        return false;
     }
 }
@@ -0,0 +1,126 @@
+package com.github.webetc.livedata.codec;
+
+import com.github.webetc.livedata.LiveResponse;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BinaryResponseReader implements Closeable {
+
+    private final InputStream in;
+    private final Map<Integer, LiveResponseWriter.Header> headers = new HashMap<>();
+
+
+    public BinaryResponseReader(InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+
+    public LiveResponse read() throws IOException {
+        // Null at the end of the stream
+        while (true) {
+            int frame = in.read();
+            if (frame < 0)
+                return null;
+
+            if (frame == BinaryResponseWriter.HeaderFrame) {
+                int headerId = (int) readVarint();
+                String schema = readString();
+                String table = readString();
+                int idColumnIndex = (int) readVarint();
+                int columnCount = (int) readVarint();
+                List<String> columns = null;
+                if (columnCount > 0) {
+                    columns = new ArrayList<>(columnCount - 1);
+                    for (int i = 1; i < columnCount; i++)
+                        columns.add(readString());
+                }
+                headers.put(headerId, new LiveResponseWriter.Header(schema, table, idColumnIndex, columns));
+            } else if (frame == BinaryResponseWriter.ResponseFrame) {
+                return readResponse();
+            } else {
+                throw new IOException("Unknown frame type " + frame);
+            }
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+
+    private LiveResponse readResponse() throws IOException {
+        String action = String.valueOf((char) readByte());
+        int chunk = readByte();
+        int headerId = (int) readVarint();
+        long sequence = readVarint();
+        LiveResponseWriter.Header header = headers.get(headerId);
+        if (header == null)
+            throw new IOException("Response refers to unknown header " + headerId);
+
+        LiveResponse response = new LiveResponse(action, header.schema, header.table);
+        response.setIdColumnIndex(header.idColumnIndex);
+        if (header.columns != null)
+            response.setColumns(new ArrayList<>(header.columns));
+        if (chunk != 0)
+            response.setChunk(String.valueOf((char) chunk));
+        response.setSequence(sequence);
+
+        int rowCount = (int) readVarint();
+        if (rowCount == 0)
+            return response;
+
+        int columnCount = header.columns == null ? 0 : header.columns.size();
+        List<List<String>> records = new ArrayList<>(rowCount - 1);
+        for (int r = 1; r < rowCount; r++) {
+            List<String> row = new ArrayList<>(columnCount);
+            for (int c = 0; c < columnCount; c++)
+                row.add(readString());
+            records.add(row);
+        }
+        response.setRecords(records);
+        return response;
+    }
+
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException("Stream ended inside a frame");
+        return b;
+    }
+
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+
+    private String readString() throws IOException {
+        int length = (int) readVarint();
+        if (length == 0)
+            return null;
+        byte[] bytes = new byte[length - 1];
+        int read = 0;
+        while (read < bytes.length) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0)
+                throw new EOFException("Stream ended inside a string");
+            read += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
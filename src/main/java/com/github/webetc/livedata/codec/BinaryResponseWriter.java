@@ -0,0 +1,105 @@
+package com.github.webetc.livedata.codec;
+
+import com.github.webetc.livedata.LiveResponse;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/*
+ * Frames, all lengths and counts are unsigned varints:
+ *   'H' headerId schema table idColumnIndex columnCount+1 column...     (columnCount+1 is 0 when no columns)
+ *   'R' action chunk headerId sequence rowCount+1 (cell...)...          (rowCount+1 is 0 when no records)
+ * action and chunk are single ASCII bytes, chunk is 0 when the response isn't chunked.
+ * Strings and cells are length+1 followed by UTF-8 bytes, a length+1 of 0 is null.
+ */
+public class BinaryResponseWriter extends LiveResponseWriter {
+
+    static final int HeaderFrame = 'H';
+    static final int ResponseFrame = 'R';
+
+    private final OutputStream out;
+
+
+    public BinaryResponseWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out);
+    }
+
+
+    public BinaryResponseWriter(ByteBuffer buffer) {
+        this.out = new ByteBufferOutputStream(buffer);
+    }
+
+
+    @Override
+    void writeHeader(int headerId, Header header) throws IOException {
+        out.write(HeaderFrame);
+        writeVarint(headerId);
+        writeString(header.schema);
+        writeString(header.table);
+        writeVarint(header.idColumnIndex);
+        if (header.columns == null) {
+            writeVarint(0);
+        } else {
+            writeVarint(header.columns.size() + 1);
+            for (String column : header.columns)
+                writeString(column);
+        }
+    }
+
+
+    @Override
+    void writeResponse(int headerId, LiveResponse response) throws IOException {
+        out.write(ResponseFrame);
+        out.write(response.getAction().charAt(0));
+        out.write(response.getChunk() == null ? 0 : response.getChunk().charAt(0));
+        writeVarint(headerId);
+        writeVarint(response.getSequence());
+
+        List<List<String>> records = response.getRecords();
+        if (records == null) {
+            writeVarint(0);
+            return;
+        }
+        writeVarint(records.size() + 1);
+        for (List<String> row : records) {
+            for (String value : row)
+                writeString(value);
+        }
+    }
+
+
+    @Override
+    void flush() throws IOException {
+        out.flush();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarint(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length + 1L);
+        out.write(bytes);
+    }
+}
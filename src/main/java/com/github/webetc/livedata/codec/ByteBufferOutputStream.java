@@ -0,0 +1,32 @@
+package com.github.webetc.livedata.codec;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+public class ByteBufferOutputStream extends OutputStream {
+
+    private final ByteBuffer buffer;
+
+
+    public ByteBufferOutputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+
+    @Override
+    public void write(int b) {
+        // BufferOverflowException when full, callers size or drain the buffer
+        buffer.put((byte) b);
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        buffer.put(b, off, len);
+    }
+}
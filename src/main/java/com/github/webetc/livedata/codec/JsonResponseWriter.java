@@ -0,0 +1,77 @@
+package com.github.webetc.livedata.codec;
+
+import com.github.webetc.livedata.LiveResponse;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class JsonResponseWriter extends LiveResponseWriter {
+
+    private final Writer writer;
+    private final JsonWriter json;
+
+
+    public JsonResponseWriter(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.json = new JsonWriter(writer);
+        this.json.setLenient(true);     // newline separated top level values
+    }
+
+
+    @Override
+    void writeHeader(int headerId, Header header) throws IOException {
+        json.beginObject();
+        json.name("header").value(headerId);
+        json.name("schema").value(header.schema);
+        json.name("table").value(header.table);
+        json.name("idColumnIndex").value(header.idColumnIndex);
+        if (header.columns != null) {
+            json.name("columns").beginArray();
+            for (String column : header.columns)
+                json.value(column);
+            json.endArray();
+        }
+        json.endObject();
+        writer.write('\n');
+    }
+
+
+    @Override
+    void writeResponse(int headerId, LiveResponse response) throws IOException {
+        // Rows are written straight from the response, no intermediate tree or String
+        json.beginObject();
+        json.name("action").value(response.getAction());
+        json.name("ref").value(headerId);
+        if (response.getChunk() != null)
+            json.name("chunk").value(response.getChunk());
+        if (response.getSequence() != 0)
+            json.name("sequence").value(response.getSequence());
+        List<List<String>> records = response.getRecords();
+        if (records != null) {
+            json.name("records").beginArray();
+            for (List<String> row : records) {
+                json.beginArray();
+                for (String value : row)
+                    json.value(value);
+                json.endArray();
+            }
+            json.endArray();
+        }
+        json.endObject();
+        writer.write('\n');
+    }
+
+
+    @Override
+    void flush() throws IOException {
+        json.flush();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        json.close();
+    }
+}
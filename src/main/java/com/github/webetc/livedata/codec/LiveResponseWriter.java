@@ -0,0 +1,86 @@
+package com.github.webetc.livedata.codec;
+
+import com.github.webetc.livedata.LiveObserver;
+import com.github.webetc.livedata.LiveResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+public abstract class LiveResponseWriter implements LiveObserver, Closeable {
+
+    static class Header {
+        final String schema;
+        final String table;
+        final int idColumnIndex;
+        final List<String> columns;     // null for responses without columns, e.g. Error
+
+        Header(String schema, String table, int idColumnIndex, List<String> columns) {
+            this.schema = schema;
+            this.table = table;
+            this.idColumnIndex = idColumnIndex;
+            this.columns = columns;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(schema, table, idColumnIndex, columns);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!Header.class.isInstance(o))
+                return false;
+            Header other = (Header) o;
+            return idColumnIndex == other.idColumnIndex && Objects.equals(schema, other.schema)
+                    && Objects.equals(table, other.table) && Objects.equals(columns, other.columns);
+        }
+    }
+
+
+    // One writer per subscription so every header only goes over the wire once
+    private final Map<Header, Integer> headers = new HashMap<>();
+
+
+    @Override
+    public void send(LiveResponse response) {
+        try {
+            write(response);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    public synchronized void write(LiveResponse response) throws IOException {
+        Header header = new Header(response.getSchema(), response.getTable(),
+                response.getIdColumnIndex(), response.getColumns());
+        Integer headerId = headers.get(header);
+        if (headerId == null) {
+            headerId = headers.size() + 1;
+            // Copy the columns so later changes to the response list can't alter a sent header
+            if (header.columns != null)
+                header = new Header(header.schema, header.table, header.idColumnIndex,
+                        new ArrayList<>(header.columns));
+            // Registered only once the frame is out, a write that fails partway sends it again next time
+            writeHeader(headerId, header);
+            headers.put(header, headerId);
+        }
+        writeResponse(headerId, response);
+        flush();
+    }
+
+
+    public synchronized int getHeaderCount() {
+        return headers.size();
+    }
+
+
+    abstract void writeHeader(int headerId, Header header) throws IOException;
+
+
+    abstract void writeResponse(int headerId, LiveResponse response) throws IOException;
+
+
+    abstract void flush() throws IOException;
+}
@@ -0,0 +1,206 @@
+package com.github.webetc.livedata.mysql;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+ * The last dispatched binlog position kept in a memory mapped file.
+ * Two fixed size slots are written in turn so a torn write leaves the previous one intact:
+ *   magic counter position filenameLength gtidLength filename gtidSet crc
+ * The crc covers everything before it, the slot with a valid crc and the highest counter wins.
+ */
+public class BinlogCheckpoint implements Closeable {
+
+    public static class Position {
+        private final String filename;
+        private final long position;
+        private final String gtidSet;
+
+        Position(String filename, long position, String gtidSet) {
+            this.filename = filename;
+            this.position = position;
+            this.gtidSet = gtidSet;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public String getGtidSet() {
+            return gtidSet;
+        }
+    }
+
+
+    public static final long DefaultForceInterval = 1000;  // ms between forcing the file to disk, 0 forces every save
+
+    static final int SlotSize = 4096;
+    private static final int Magic = 0x4c444350;
+    private static final int FixedSize = 4 + 8 + 8 + 2 + 2 + 4;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ScheduledExecutorService flusher;
+    private long counter = 0;
+    private Position position = null;
+    private volatile long forceInterval = DefaultForceInterval;
+    private long lastForce = 0;
+    private boolean dirty = false;
+    private boolean flushScheduled = false;
+    private long saveCount = 0;
+    private long forceCount = 0;
+
+
+    public BinlogCheckpoint(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2 * SlotSize);
+        for (int slot = 0; slot < 2; slot++)
+            read(slot);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "LiveDatabase-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    public synchronized Position getPosition() {
+        return position;
+    }
+
+
+    public synchronized void save(String filename, long binlogPosition, String gtidSet) {
+        if (filename == null && gtidSet == null)
+            return;
+
+        byte[] name = filename != null ? filename.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] gtid = gtidSet != null ? gtidSet.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (FixedSize + name.length + gtid.length > SlotSize) {
+            // Huge GTID sets fall back to the file position
+            System.err.println("GTID set too large to checkpoint, keeping the binlog position only");
+            gtid = new byte[0];
+            gtidSet = null;
+            if (FixedSize + name.length > SlotSize)
+                return;
+        }
+
+        // Write the slot not holding the current checkpoint, crc last
+        counter++;
+        int start = (int) (counter % 2) * SlotSize;
+        buffer.putInt(start, Magic);
+        buffer.putLong(start + 4, counter);
+        buffer.putLong(start + 12, binlogPosition);
+        buffer.putShort(start + 20, (short) name.length);
+        buffer.putShort(start + 22, (short) gtid.length);
+        for (int i = 0; i < name.length; i++)
+            buffer.put(start + 24 + i, name[i]);
+        for (int i = 0; i < gtid.length; i++)
+            buffer.put(start + 24 + name.length + i, gtid[i]);
+        int end = start + 24 + name.length + gtid.length;
+        buffer.putInt(end, crc(start, end));
+
+        position = new Position(filename, binlogPosition, gtidSet);
+        saveCount++;
+        dirty = true;
+
+        // The mapped page survives a process crash, forcing it only matters for the OS going down
+        long now = System.currentTimeMillis();
+        if (now - lastForce >= forceInterval) {
+            force(now);
+        } else if (!flushScheduled) {
+            // The last save before a quiet spell still reaches the disk once the interval is up
+            flushScheduled = true;
+            flusher.schedule(this::flush, lastForce + forceInterval - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    public long getForceInterval() {
+        return forceInterval;
+    }
+
+
+    public void setForceInterval(long forceInterval) {
+        this.forceInterval = forceInterval;
+    }
+
+
+    public synchronized long getSaveCount() {
+        return saveCount;
+    }
+
+
+    public synchronized long getForceCount() {
+        return forceCount;
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException {
+        flusher.shutdownNow();
+        if (dirty)
+            force(System.currentTimeMillis());
+        channel.close();
+    }
+
+
+    private synchronized void flush() {
+        flushScheduled = false;
+        if (dirty && channel.isOpen())
+            force(System.currentTimeMillis());
+    }
+
+
+    private void force(long now) {
+        buffer.force();
+        lastForce = now;
+        dirty = false;
+        forceCount++;
+    }
+
+
+    private void read(int slot) {
+        int start = slot * SlotSize;
+        if (buffer.getInt(start) != Magic)
+            return;
+        long slotCounter = buffer.getLong(start + 4);
+        int nameLength = buffer.getShort(start + 20) & 0xffff;
+        int gtidLength = buffer.getShort(start + 22) & 0xffff;
+        int end = start + 24 + nameLength + gtidLength;
+        if (end + 4 > start + SlotSize || buffer.getInt(end) != crc(start, end) || slotCounter <= counter)
+            return;
+
+        byte[] name = new byte[nameLength];
+        byte[] gtid = new byte[gtidLength];
+        for (int i = 0; i < nameLength; i++)
+            name[i] = buffer.get(start + 24 + i);
+        for (int i = 0; i < gtidLength; i++)
+            gtid[i] = buffer.get(start + 24 + nameLength + i);
+
+        counter = slotCounter;
+        position = new Position(nameLength > 0 ? new String(name, StandardCharsets.UTF_8) : null,
+                buffer.getLong(start + 12),
+                gtidLength > 0 ? new String(gtid, StandardCharsets.UTF_8) : null);
+    }
+
+
+    private int crc(int start, int end) {
+        CRC32 crc = new CRC32();
+        for (int i = start; i < end; i++)
+            crc.update(buffer.get(i));
+        return (int) crc.getValue();
+    }
+}
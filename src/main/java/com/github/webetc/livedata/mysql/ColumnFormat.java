@@ -0,0 +1,203 @@
+package com.github.webetc.livedata.mysql;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+ * Formats binlog row image values the way the JDBC driver's getObject().toString() does for the same column,
+ * so a row reads the same whether it came from a load or a later change.
+ * Dates and times in row images are wall clock values stored as if they were UTC.
+ */
+class ColumnFormat {
+
+    enum Kind {
+        Plain, Boolean, Unsigned, Enum, Set, Bit, Date, Time, DateTime, Year
+    }
+
+
+    private final String name;
+    private final Kind kind;
+    private final long mask;                // unsigned columns narrower than a long
+    private final List<String> labels;      // enum and set members in declared order
+
+
+    private ColumnFormat(String name, Kind kind, long mask, List<String> labels) {
+        this.name = name;
+        this.kind = kind;
+        this.mask = mask;
+        this.labels = labels;
+    }
+
+
+    static ColumnFormat parse(String name, String dataType, String columnType) {
+        String type = dataType != null ? dataType.toLowerCase() : "";
+        String full = columnType != null ? columnType.toLowerCase() : type;
+
+        switch (type) {
+            case "tinyint":
+                // The driver reads tinyint(1) as a boolean
+                if (full.startsWith("tinyint(1)"))
+                    return new ColumnFormat(name, Kind.Boolean, 0, null);
+                return unsigned(name, full, 0xffL);
+            case "smallint":
+                return unsigned(name, full, 0xffffL);
+            case "mediumint":
+                return unsigned(name, full, 0xffffffL);
+            case "int":
+            case "integer":
+                return unsigned(name, full, 0xffffffffL);
+            case "bigint":
+                return unsigned(name, full, -1L);
+            case "enum":
+                return new ColumnFormat(name, Kind.Enum, 0, parseLabels(columnType));
+            case "set":
+                return new ColumnFormat(name, Kind.Set, 0, parseLabels(columnType));
+            case "bit":
+                // bit(1) is a boolean to the driver, wider bits are read as a number here
+                return new ColumnFormat(name, full.startsWith("bit(1)") ? Kind.Boolean : Kind.Bit, 0, null);
+            case "date":
+                return new ColumnFormat(name, Kind.Date, 0, null);
+            case "time":
+                return new ColumnFormat(name, Kind.Time, 0, null);
+            case "datetime":
+                return new ColumnFormat(name, Kind.DateTime, 0, null);
+            case "year":
+                return new ColumnFormat(name, Kind.Year, 0, null);
+            default:
+                return new ColumnFormat(name, Kind.Plain, 0, null);
+        }
+    }
+
+
+    private static ColumnFormat unsigned(String name, String columnType, long mask) {
+        if (!columnType.contains("unsigned"))
+            return new ColumnFormat(name, Kind.Plain, 0, null);
+        return new ColumnFormat(name, Kind.Unsigned, mask, null);
+    }
+
+
+    private static List<String> parseLabels(String columnType) {
+        // enum('a','b''c') with quotes doubled inside a label
+        List<String> labels = new ArrayList<>();
+        if (columnType == null)
+            return labels;
+        StringBuilder label = null;
+        for (int i = columnType.indexOf('(') + 1; i > 0 && i < columnType.length(); i++) {
+            char c = columnType.charAt(i);
+            if (label == null) {
+                if (c == '\'')
+                    label = new StringBuilder();
+            } else if (c == '\'' && i + 1 < columnType.length() && columnType.charAt(i + 1) == '\'') {
+                label.append(c);
+                i++;
+            } else if (c == '\'') {
+                labels.add(label.toString());
+                label = null;
+            } else {
+                label.append(c);
+            }
+        }
+        return labels;
+    }
+
+
+    String getName() {
+        return name;
+    }
+
+
+    Kind getKind() {
+        return kind;
+    }
+
+
+    String format(Serializable value) {
+        if (value == null)
+            return null;
+
+        switch (kind) {
+            case Boolean:
+                if (BitSet.class.isInstance(value))
+                    return String.valueOf(!((BitSet) value).isEmpty());
+                if (Number.class.isInstance(value))
+                    return String.valueOf(((Number) value).longValue() != 0);
+                break;
+            case Unsigned:
+                if (Number.class.isInstance(value)) {
+                    long raw = ((Number) value).longValue();
+                    return mask == -1L ? Long.toUnsignedString(raw) : String.valueOf(raw & mask);
+                }
+                break;
+            case Enum:
+                if (Number.class.isInstance(value)) {
+                    // 0 is the empty string MySQL stores for invalid values
+                    int ordinal = ((Number) value).intValue();
+                    return ordinal > 0 && ordinal <= labels.size() ? labels.get(ordinal - 1) : "";
+                }
+                break;
+            case Set:
+                if (Number.class.isInstance(value)) {
+                    long bits = ((Number) value).longValue();
+                    StringBuilder members = new StringBuilder();
+                    for (int i = 0; i < labels.size(); i++) {
+                        if ((bits & (1L << i)) == 0)
+                            continue;
+                        if (members.length() > 0)
+                            members.append(',');
+                        members.append(labels.get(i));
+                    }
+                    return members.toString();
+                }
+                break;
+            case Bit:
+                if (BitSet.class.isInstance(value)) {
+                    long[] words = ((BitSet) value).toLongArray();
+                    return words.length > 0 ? Long.toUnsignedString(words[0]) : "0";
+                }
+                break;
+            case Date:
+                if (java.util.Date.class.isInstance(value))
+                    return wallClock((java.util.Date) value).toLocalDate().toString();
+                break;
+            case Time:
+                if (java.util.Date.class.isInstance(value)) {
+                    LocalDateTime time = wallClock((java.util.Date) value);
+                    return String.format("%02d:%02d:%02d", time.getHour(), time.getMinute(), time.getSecond());
+                }
+                break;
+            case DateTime:
+                if (java.util.Date.class.isInstance(value) && !Timestamp.class.isInstance(value))
+                    return Timestamp.valueOf(wallClock((java.util.Date) value)).toString();
+                break;
+            case Year:
+                // The driver reads a year as the first day of it
+                if (Number.class.isInstance(value))
+                    return String.format("%04d-01-01", ((Number) value).intValue());
+                break;
+        }
+
+        if (byte[].class.isInstance(value))
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        return value.toString();
+    }
+
+
+    static String formatBits(byte[] value) {
+        // The driver hands wide bit columns over as big endian bytes
+        return new BigInteger(1, value).toString();
+    }
+
+
+    private static LocalDateTime wallClock(java.util.Date value) {
+        long millis = value.getTime();
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                (int) Math.floorMod(millis, 1000L) * 1000000, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,386 @@
+package com.github.webetc.livedata.mysql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ConnectionPool {
+
+    public static final int DefaultMaxSize = 8;
+    public static final long DefaultIdleTimeout = 60000;        // ms before an idle connection is closed
+    public static final long DefaultValidationInterval = 5000;  // ms idle before validating on borrow
+    public static final long DefaultBorrowTimeout = 30000;      // ms to wait for a free connection
+    public static final int DefaultStatementCacheSize = 64;     // prepared statements per connection
+
+
+    public class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+        private long lastUsed = System.currentTimeMillis();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            // Only used by the borrowing thread so no locking needed
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt != null) {
+                statementHits.incrementAndGet();
+                return stmt;
+            }
+
+            statementMisses.incrementAndGet();
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+            return stmt;
+        }
+
+        private void close() {
+            for (PreparedStatement stmt : statements.values())
+                closeQuietly(stmt);
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private long idleTimeout = DefaultIdleTimeout;
+    private long validationInterval = DefaultValidationInterval;
+    private long borrowTimeout = DefaultBorrowTimeout;
+    private boolean closed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int total = 0;
+
+    // Stats
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+
+    public ConnectionPool(String url, String user, String password) {
+        this(url, user, password, DefaultMaxSize, DefaultStatementCacheSize);
+    }
+
+
+    public ConnectionPool(String url, String user, String password, int maxSize, int statementCacheSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.statementCacheSize = statementCacheSize;
+    }
+
+
+    public PooledConnection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeout);
+        boolean waited = false;
+        List<PooledConnection> discard = new ArrayList<>();
+
+        try {
+            while (true) {
+                PooledConnection pc = null;
+                lock.lock();
+                try {
+                    while (true) {
+                        if (closed)
+                            throw new SQLException("Connection pool is closed");
+
+                        evictIdle(discard);
+
+                        // Taken out of idle so it is already ours, validation happens outside the lock
+                        pc = idle.pollFirst();
+                        if (pc != null)
+                            break;
+
+                        if (total < maxSize) {
+                            // Reserve a slot and create the connection outside the lock
+                            total++;
+                            break;
+                        }
+
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0)
+                            throw new SQLException("Timed out waiting for connection to " + url);
+                        waited = true;
+                        available.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for connection to " + url);
+                } finally {
+                    lock.unlock();
+                }
+
+                if (pc == null)
+                    break;
+                if (isValid(pc)) {
+                    borrowCount.incrementAndGet();
+                    return pc;
+                }
+                invalidCount.incrementAndGet();
+                discard.add(pc);
+                lock.lock();
+                try {
+                    total--;
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            try {
+                PooledConnection pc = new PooledConnection(DriverManager.getConnection(url, user, password));
+                createdCount.incrementAndGet();
+                borrowCount.incrementAndGet();
+                return pc;
+            } catch (SQLException e) {
+                lock.lock();
+                try {
+                    total--;
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+        } finally {
+            if (waited) {
+                waitCount.incrementAndGet();
+                waitNanos.addAndGet(System.nanoTime() - start);
+            }
+            for (PooledConnection pc : discard)
+                pc.close();
+        }
+    }
+
+
+    public void release(PooledConnection pc) {
+        release(pc, false);
+    }
+
+
+    public void release(PooledConnection pc, boolean broken) {
+        if (pc == null)
+            return;
+
+        boolean close = broken;
+        lock.lock();
+        try {
+            if (broken || closed) {
+                total--;
+                close = true;
+            } else {
+                pc.lastUsed = System.currentTimeMillis();
+                idle.addFirst(pc);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (close)
+            pc.close();
+    }
+
+
+    public void close() {
+        List<PooledConnection> discard;
+        lock.lock();
+        try {
+            closed = true;
+            discard = new ArrayList<>(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledConnection pc : discard)
+            pc.close();
+    }
+
+
+    private void evictIdle(List<PooledConnection> discard) {
+        // Oldest idle connections are at the tail
+        long now = System.currentTimeMillis();
+        while (!idle.isEmpty() && now - idle.peekLast().lastUsed > idleTimeout) {
+            discard.add(idle.pollLast());
+            total--;
+            evictedCount.incrementAndGet();
+        }
+    }
+
+
+    private boolean isValid(PooledConnection pc) {
+        if (System.currentTimeMillis() - pc.lastUsed < validationInterval)
+            return true;
+        try {
+            return pc.connection.isValid((int) Math.max(1, validationInterval / 1000));
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+
+    public static boolean isConnectionError(SQLException e) {
+        // SQLSTATE class 08 is a connection exception, anything else leaves the connection usable
+        String state = e.getSQLState();
+        return state == null || state.startsWith("08");
+    }
+
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+
+    public long getBorrowTimeout() {
+        return borrowTimeout;
+    }
+
+
+    public void setBorrowTimeout(long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+
+    public int getTotalCount() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return total - idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+
+    public long getInvalidCount() {
+        return invalidCount.get();
+    }
+
+
+    public long getStatementCacheHits() {
+        return statementHits.get();
+    }
+
+
+    public long getStatementCacheMisses() {
+        return statementMisses.get();
+    }
+}
@@ -2,28 +2,40 @@ package com.github.webetc.livedata.mysql;
 
 import com.github.shyiko.mysql.binlog.BinaryLogClient;
 import com.github.shyiko.mysql.binlog.event.*;
+import com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer;
+import com.github.webetc.livedata.LiveColumnBatch;
+import com.github.webetc.livedata.LivePredicate;
 import com.github.webetc.livedata.LiveResponse;
-import com.github.webetc.livedata.LiveTable;
 import com.github.webetc.livedata.LiveTransactionDatabase;
 
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 
 public class DatabaseMySQL extends LiveTransactionDatabase {
 
     private BinaryLogClient client;
-    protected Map<String, Long> lastTableId = new HashMap<>();
+    private ConnectionPool pool;
+    private ExecutorService chunkExecutor;
+    protected Map<String, Long> lastTableId = new ConcurrentHashMap<>();
     private String hostname;
     private Integer port;
     private String url;
     private String user;
     private String password;
-    private String tablemap_db = null;
-    private String tablemap_table = null;
+    private final Map<Long, TableMapEventData> tableMaps = new HashMap<>();
+    private final Set<Long> watchedTableIds = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<ColumnFormat>> tableColumns = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> tableColumnTypes = new ConcurrentHashMap<>();   // binlog types the formats were loaded for
+    private volatile boolean columnarLoads = false;
+    private final BinlogCheckpoint checkpoint;
 
 
     public DatabaseMySQL(String hostname, String user, String password) throws ClassNotFoundException {
@@ -32,12 +44,36 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
 
 
     public DatabaseMySQL(String hostname, Integer port, String user, String password) throws ClassNotFoundException {
-        super();
+        this(hostname, port, user, password, ConnectionPool.DefaultMaxSize);
+    }
+
+
+    public DatabaseMySQL(String hostname, Integer port, String user, String password, int poolSize) throws ClassNotFoundException {
+        this(hostname, port, user, password, poolSize, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    public DatabaseMySQL(String hostname, Integer port, String user, String password,
+                         int poolSize, int dispatchThreads) throws ClassNotFoundException {
+        this(hostname, port, user, password, poolSize, dispatchThreads, null);
+    }
+
+
+    public DatabaseMySQL(String hostname, Integer port, String user, String password,
+                         int poolSize, int dispatchThreads, BinlogCheckpoint checkpoint) throws ClassNotFoundException {
+        super(dispatchThreads);
+        this.checkpoint = checkpoint;
         this.hostname = hostname;
         this.port = port;
         this.url = "jdbc:mysql://" + hostname + ":" + port;
         this.user = user;
         this.password = password;
+        this.pool = new ConnectionPool(url, user, password, poolSize, ConnectionPool.DefaultStatementCacheSize);
+        this.chunkExecutor = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread thread = new Thread(r, "DatabaseMySQL-chunk");
+            thread.setDaemon(true);
+            return thread;
+        });
         start();
     }
 
@@ -45,15 +81,46 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
     public void close() throws Exception {
         super.close();
         client.disconnect();
+        chunkExecutor.shutdownNow();
+        pool.close();
+        if (checkpoint != null)
+            checkpoint.close();
+    }
+
+
+    public BinlogCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+
+    public boolean isColumnarLoads() {
+        return columnarLoads;
+    }
+
+
+    public void setColumnarLoads(boolean columnarLoads) {
+        // Query results are kept in typed column vectors instead of a String per cell
+        this.columnarLoads = columnarLoads;
+    }
+
+
+    @Override
+    protected LiveResponse getData(String schema, String table, LivePredicate where) {
+        return getData(schema, table, where, null);
     }
 
 
     @Override
-    protected LiveResponse getData(String schema, String table, String where) {
+    protected LiveResponse getData(String schema, String table, LivePredicate where, List<String> columns) {
         String action = where == null ? LiveResponse.Load : LiveResponse.Modify;
         LiveResponse response = new LiveResponse(action, schema, table);
 
-        if (getData(response, where)) {
+        if (getChunkedData(response, where, columns)) {
             String tablePath = schema.toLowerCase() + "." + table.toLowerCase();
 
             // Set initial last id for table
@@ -67,6 +134,34 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
     }
 
 
+    @Override
+    protected void streamData(String schema, String table, LivePredicate where,
+                              int chunkSize, Consumer<LiveResponse> sink) {
+        streamData(schema, table, where, null, chunkSize, sink);
+    }
+
+
+    @Override
+    protected void streamData(String schema, String table, LivePredicate where, List<String> columns,
+                              int chunkSize, Consumer<LiveResponse> sink) {
+        LiveResponse response = new LiveResponse(where == null ? LiveResponse.Load : LiveResponse.Modify, schema, table);
+        long[] largestId = {0};
+
+        boolean ok = getData(response, where, columns, chunkSize, chunk -> {
+            largestId[0] = Math.max(largestId[0], chunk.largestId);
+            sink.accept(chunk);
+        });
+
+        if (ok) {
+            String tablePath = schema.toLowerCase() + "." + table.toLowerCase();
+            lastTableId.putIfAbsent(tablePath, largestId[0]);
+        } else {
+            // Clients drop any chunks already received
+            sink.accept(new LiveResponse(LiveResponse.Error, schema, table));
+        }
+    }
+
+
     @Override
     protected LiveResponse getInserted(String schema, String table) {
         LiveResponse response = new LiveResponse(LiveResponse.Modify, schema, table);
@@ -75,10 +170,10 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
         Long lastId = lastTableId.get(tablePath);
         if (lastId == null)
             lastId = 0L;
-        String where = "where " + idCol + " > " + lastId;
-        if (getData(response, where)) {
+        if (getData(response, LivePredicate.compare(idCol, ">", lastId))) {
+            // The binlog thread may have moved it further along meanwhile, never move it back
             if (response.largestId > lastId)
-                lastTableId.put(tablePath, response.largestId);
+                lastTableId.merge(tablePath, response.largestId, Math::max);
             return response;
         }
         return new LiveResponse(LiveResponse.Error, schema, table);
@@ -87,14 +182,15 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
 
     @Override
     protected String loadPrimaryKey(String schemaName, String tableName) {
-        Connection con = null;
+        ConnectionPool.PooledConnection con = null;
+        boolean broken = false;
         ResultSet keys = null;
         String primaryKey = null;
         int count = 0;
 
         try {
-            con = DriverManager.getConnection(url, user, password);
-            DatabaseMetaData meta = con.getMetaData();
+            con = pool.borrow();
+            DatabaseMetaData meta = con.getConnection().getMetaData();
             keys = meta.getPrimaryKeys(schemaName, null, tableName);
             while (keys.next()) {
                 count++;
@@ -104,6 +200,9 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
             if (count == 1)
                 return primaryKey;
 
+        } catch (SQLException e) {
+            broken = ConnectionPool.isConnectionError(e);
+            e.printStackTrace();
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
@@ -113,21 +212,66 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            pool.release(con, broken);
+        }
+
+        // Currently don't handle multiple keys
+        return null;
+    }
+
+
+    private boolean getChunkedData(LiveResponse response, LivePredicate where, List<String> columns) {
+        if (where == null)
+            return getData(response, null, columns, 0, null);
+
+        List<LivePredicate> chunks = where.chunk(LivePredicate.MaxInListSize);
+        if (chunks.size() == 1)
+            return getData(response, where, columns, 0, null);
+
+        // Very large key sets run as parallel chunks merged into one response
+        List<LiveResponse> parts = new ArrayList<>();
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (LivePredicate chunk : chunks) {
+            LiveResponse part = new LiveResponse(response.getAction(), response.getSchema(), response.getTable());
+            parts.add(part);
+            results.add(chunkExecutor.submit(() -> getData(part, chunk, columns, 0, null)));
+        }
+
+        boolean ok = true;
+        for (Future<Boolean> result : results) {
             try {
-                if (con != null)
-                    con.close();
-            } catch (SQLException e) {
+                ok &= result.get();
+            } catch (Exception e) {
                 e.printStackTrace();
+                ok = false;
             }
         }
+        if (!ok)
+            return false;
+
+        response.setColumns(parts.get(0).getColumns());
+        response.setIdColumnIndex(parts.get(0).getIdColumnIndex());
+        for (LiveResponse part : parts) {
+            if (part.getRecords() != null) {
+                for (List<String> row : part.getRecords())
+                    response.addRecord(row);
+            }
+            response.largestId = Math.max(response.largestId, part.largestId);
+        }
+        return true;
+    }
 
-        // Currently don't handle multiple keys
-        return null;
+
+    private boolean getData(LiveResponse response, LivePredicate where) {
+        return getData(response, where, null, 0, null);
     }
 
 
-    private boolean getData(LiveResponse response, String where) {
-        Connection con = null;
+    private boolean getData(LiveResponse response, LivePredicate where, List<String> columns,
+                            int chunkSize, Consumer<LiveResponse> chunkSink) {
+        ConnectionPool.PooledConnection con = null;
+        boolean broken = false;
+        PreparedStatement stmt = null;
         ResultSet rs = null;
         String schema = response.getSchema();
         String table = response.getTable();
@@ -138,13 +282,28 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
             if (idCol == null)
                 throw new Exception("Primary key not found for " + schema + "." + table);
 
-            con = DriverManager.getConnection(url, user, password);
-            Statement stmt = con.createStatement();
-            if (where != null)
-                sql = "select * from " + schema + "." + table + " " + where;
-            else
-                sql = "select * from " + schema + "." + table;
-            rs = stmt.executeQuery(sql);
+            StringBuilder query = new StringBuilder("select ");
+            appendSelectList(query, idCol, columns);
+            query.append(" from ").append(schema).append('.').append(table);
+            List<Object> parameters = new ArrayList<>();
+            if (where != null) {
+                query.append(" where ");
+                where.toSql(query, parameters);
+            }
+            sql = query.toString();
+
+            con = pool.borrow();
+            if (chunkSink != null) {
+                // Forward only streaming fetch, rows come off the socket one at a time
+                stmt = con.getConnection().prepareStatement(sql,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                stmt.setFetchSize(Integer.MIN_VALUE);
+            } else {
+                stmt = con.prepareStatement(sql);
+            }
+            for (int i = 0; i < parameters.size(); i++)
+                stmt.setObject(i + 1, parameters.get(i));
+            rs = stmt.executeQuery();
             ResultSetMetaData rsmd = rs.getMetaData();
             int idColIndex = 0;
 
@@ -159,30 +318,69 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
             }
 
             // Add row data
+            LiveColumnBatch.Type[] types = columnarLoads ? getColumnTypes(rsmd) : null;
+            LiveColumnBatch batch = null;
+            if (types != null) {
+                batch = new LiveColumnBatch(types);
+                response.setColumnar(batch);
+            }
+            long largestId = 0;
+            boolean chunked = false;
             while (rs.next()) {
-                List<String> row = new ArrayList<>();
-                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-                    Object o = rs.getObject(i);
-                    if (o != null)
-                        row.add(o.toString());  // TODO: format by data type
-                    else
-                        row.add(null);
-
-                    // Find last id for table
-                    if (i == idColIndex && Long.class.isInstance(o)) {
-                        long idVal = (Long) o;
-                        if (idVal > response.largestId)
-                            response.largestId = idVal;
-                    } else if (i == idColIndex && Integer.class.isInstance(o)) {
-                        int idVal = (Integer) o;
-                        if (idVal > response.largestId)
-                            response.largestId = idVal;
+                if (batch != null) {
+                    largestId = Math.max(largestId, appendRow(batch, rs, rsmd, idColIndex));
+                } else {
+                    List<String> row = new ArrayList<>();
+                    for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+                        Object o = rs.getObject(i);
+                        row.add(formatResult(o, rsmd.getColumnType(i)));
+
+                        // Find last id for table
+                        if (i == idColIndex && Long.class.isInstance(o)) {
+                            long idVal = (Long) o;
+                            if (idVal > largestId)
+                                largestId = idVal;
+                        } else if (i == idColIndex && Integer.class.isInstance(o)) {
+                            int idVal = (Integer) o;
+                            if (idVal > largestId)
+                                largestId = idVal;
+                        }
                     }
+                    response.addRecord(row);
                 }
-                response.addRecord(row);
+
+                if (chunkSink != null && response.getRecords().size() >= chunkSize) {
+                    response.setChunk(chunked ? LiveResponse.ChunkContinue : LiveResponse.ChunkStart);
+                    response.largestId = largestId;
+                    chunkSink.accept(response);
+                    chunked = true;
+
+                    LiveResponse next = new LiveResponse(response.getAction(), schema, table);
+                    next.setColumns(response.getColumns());
+                    next.setIdColumnIndex(response.getIdColumnIndex());
+                    if (batch != null) {
+                        batch = new LiveColumnBatch(types);
+                        next.setColumnar(batch);
+                    }
+                    response = next;
+                }
+            }
+            response.largestId = largestId;
+
+            if (chunkSink != null) {
+                // A load that fit in one chunk goes out whole
+                if (chunked)
+                    response.setChunk(LiveResponse.ChunkEnd);
+                if (response.getRecords() == null)
+                    response.setRecords(new ArrayList<>());
+                chunkSink.accept(response);
             }
 
             return true;
+        } catch (SQLException e) {
+            broken = ConnectionPool.isConnectionError(e);
+            System.err.println(sql);
+            e.printStackTrace();
         } catch (Exception e) {
             System.err.println(sql);
             e.printStackTrace();
@@ -194,11 +392,12 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
                 e.printStackTrace();
             }
             try {
-                if (con != null)
-                    con.close();
+                if (chunkSink != null && stmt != null)
+                    stmt.close();
             } catch (SQLException e) {
                 e.printStackTrace();
             }
+            pool.release(con, broken);
         }
 
         // Shouldn't get here unless db or network is down
@@ -206,13 +405,103 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
     }
 
 
+    private static LiveColumnBatch.Type[] getColumnTypes(ResultSetMetaData rsmd) throws SQLException {
+        LiveColumnBatch.Type[] types = new LiveColumnBatch.Type[rsmd.getColumnCount()];
+        for (int i = 1; i <= types.length; i++) {
+            switch (rsmd.getColumnType(i)) {
+                case Types.BIGINT:
+                    // Unsigned bigint can overflow a long so keep its text
+                    types[i - 1] = rsmd.isSigned(i) ? LiveColumnBatch.Type.Long : LiveColumnBatch.Type.String;
+                    break;
+                case Types.INTEGER:
+                    types[i - 1] = rsmd.isSigned(i) ? LiveColumnBatch.Type.Int : LiveColumnBatch.Type.Long;
+                    break;
+                case Types.SMALLINT:
+                case Types.TINYINT:
+                    types[i - 1] = LiveColumnBatch.Type.Int;
+                    break;
+                case Types.DOUBLE:
+                    types[i - 1] = LiveColumnBatch.Type.Double;
+                    break;
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                case Types.BLOB:
+                    types[i - 1] = LiveColumnBatch.Type.Bytes;
+                    break;
+                default:
+                    types[i - 1] = LiveColumnBatch.Type.String;
+            }
+        }
+        return types;
+    }
+
+
+    private static long appendRow(LiveColumnBatch batch, ResultSet rs, ResultSetMetaData rsmd,
+                                  int idColIndex) throws SQLException {
+        long id = 0;
+        for (int i = 1; i <= batch.getColumnCount(); i++) {
+            LiveColumnBatch.Vector vector = batch.getVector(i - 1);
+            switch (vector.getType()) {
+                case Long: {
+                    long value = rs.getLong(i);
+                    if (rs.wasNull()) {
+                        vector.appendNull();
+                    } else {
+                        vector.appendLong(value);
+                        if (i == idColIndex)
+                            id = value;
+                    }
+                    break;
+                }
+                case Int: {
+                    int value = rs.getInt(i);
+                    if (rs.wasNull()) {
+                        vector.appendNull();
+                    } else {
+                        vector.appendInt(value);
+                        if (i == idColIndex)
+                            id = value;
+                    }
+                    break;
+                }
+                case Double: {
+                    double value = rs.getDouble(i);
+                    if (rs.wasNull())
+                        vector.appendNull();
+                    else
+                        vector.appendDouble(value);
+                    break;
+                }
+                case Bytes:
+                    vector.appendBytes(rs.getBytes(i));
+                    break;
+                default:
+                    vector.appendString(formatResult(rs.getObject(i), rsmd.getColumnType(i)));
+            }
+        }
+        batch.endRow();
+        return id;
+    }
+
+
     private void start() throws ClassNotFoundException {
         Class.forName("com.mysql.jdbc.Driver");
 
         // Start the replication client
         client = new BinaryLogClient(hostname, port, user, password);
+        client.setEventDeserializer(createEventDeserializer());
         client.registerEventListener(this::processDatabaseEvent);
 
+        // Carry on from the last dispatched transaction, otherwise from the current head
+        BinlogCheckpoint.Position position = checkpoint != null ? checkpoint.getPosition() : null;
+        if (position != null && position.getGtidSet() != null) {
+            client.setGtidSet(position.getGtidSet());
+        } else if (position != null) {
+            client.setBinlogFilename(position.getFilename());
+            client.setBinlogPosition(position.getPosition());
+        }
+
         try {
             client.connect(1000);
         } catch (Exception e) {
@@ -221,6 +510,19 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
     }
 
 
+    private EventDeserializer createEventDeserializer() {
+        // Only decode row images for tables being watched
+        EventDeserializer deserializer = new EventDeserializer();
+        for (EventType type : EventType.values()) {
+            if (EventType.isRowMutation(type)) {
+                deserializer.setEventDataDeserializer(type,
+                        new WatchedRowsDeserializer(deserializer.getEventDataDeserializer(type), watchedTableIds));
+            }
+        }
+        return deserializer;
+    }
+
+
     private void processDatabaseEvent(Event event) {
         EventType et = event.getHeader().getEventType();
 
@@ -228,38 +530,285 @@ public class DatabaseMySQL extends LiveTransactionDatabase {
             EventData ed = event.getData();
             if (ed != null && TableMapEventData.class.isInstance(ed)) {
                 TableMapEventData tmed = (TableMapEventData) ed;
-                tablemap_db = tmed.getDatabase().toLowerCase();
-                tablemap_table = tmed.getTable().toLowerCase();
-            } else {
-                tablemap_db = null;
-                tablemap_table = null;
-            }
-        } else if (EventType.isRowMutation(et)) {
-            if (tablemap_db != null && tablemap_table != null) {
-                for (LiveTable l : liveTables) {
-                    if (tablemap_db.equals(l.getSchemaName()) && tablemap_table.equals(l.getTableName())) {
-                        // TODO: handle non-gtid mutations
-                    }
+                if (findTable(tmed.getDatabase(), tmed.getTable()) != null) {
+                    tableMaps.put(tmed.getTableId(), tmed);
+                    watchedTableIds.add(tmed.getTableId());
+                } else {
+                    tableMaps.remove(tmed.getTableId());
+                    watchedTableIds.remove(tmed.getTableId());
                 }
             }
+        } else if (EventType.isRowMutation(et)) {
+            EventData ed = event.getData();
+            if (ed != null)
+                processRowsEvent(ed);
         } else if (et == EventType.ANONYMOUS_GTID || et == EventType.GTID) {
             startTransaction();
         } else if (et == EventType.XID) {
-            endTransaction(true);
+            endTransaction(true, checkpointer(event));
         } else if (et == EventType.QUERY) {
             EventData ed = event.getData();
             if (ed != null && QueryEventData.class.isInstance(ed)) {
                 QueryEventData qed = (QueryEventData) ed;
                 String sql = qed.getSql().substring(0, Math.min(10, qed.getSql().length())).toLowerCase();
                 if (sql.startsWith("commit")) {
-                    endTransaction(true);
+                    endTransaction(true, checkpointer(event));
                 } else if (sql.startsWith("rollback")) {
-                    endTransaction(false);
+                    endTransaction(false, checkpointer(event));
                 } else {
+                    if (isSchemaChange(sql.trim()))
+                        clearColumns();
                     processTransactionSQL(qed.getDatabase(), qed.getSql());
                 }
             }
 
         }
     }
+
+
+    private Runnable checkpointer(Event event) {
+        if (checkpoint == null || !EventHeaderV4.class.isInstance(event.getHeader()))
+            return null;
+
+        // Position after the commit, saved once everything before it has been dispatched
+        String filename = client.getBinlogFilename();
+        long position = ((EventHeaderV4) event.getHeader()).getNextPosition();
+        String gtidSet = client.getGtidSet();
+        return () -> checkpoint.save(filename, position, gtidSet);
+    }
+
+
+    private void processRowsEvent(EventData ed) {
+        LiveResponse response = null;
+        boolean insert = false;
+
+        if (WriteRowsEventData.class.isInstance(ed)) {
+            WriteRowsEventData data = (WriteRowsEventData) ed;
+            TableMapEventData tmed = tableMaps.get(data.getTableId());
+            if (tmed != null) {
+                response = createRowResponse(LiveResponse.Modify, tmed,
+                        data.getRows(), data.getIncludedColumns(), null, null);
+                insert = true;
+                if (response != null && response.largestId > 0) {
+                    String tablePath = response.getSchema().toLowerCase() + "." + response.getTable().toLowerCase();
+                    lastTableId.merge(tablePath, response.largestId, Math::max);
+                }
+            }
+        } else if (UpdateRowsEventData.class.isInstance(ed)) {
+            UpdateRowsEventData data = (UpdateRowsEventData) ed;
+            TableMapEventData tmed = tableMaps.get(data.getTableId());
+            if (tmed != null) {
+                List<Serializable[]> before = new ArrayList<>();
+                List<Serializable[]> after = new ArrayList<>();
+                for (Map.Entry<Serializable[], Serializable[]> row : data.getRows()) {
+                    before.add(row.getKey());
+                    after.add(row.getValue());
+                }
+                response = createRowResponse(LiveResponse.Modify, tmed,
+                        after, data.getIncludedColumns(), before, data.getIncludedColumnsBeforeUpdate());
+            }
+        } else if (DeleteRowsEventData.class.isInstance(ed)) {
+            DeleteRowsEventData data = (DeleteRowsEventData) ed;
+            TableMapEventData tmed = tableMaps.get(data.getTableId());
+            if (tmed != null) {
+                response = createRowResponse(LiveResponse.Delete, tmed,
+                        null, null, data.getRows(), data.getIncludedColumns());
+            }
+        }
+
+        if (response != null)
+            processRowMutation(response, insert);
+    }
+
+
+    private LiveResponse createRowResponse(String action, TableMapEventData tmed,
+                                           List<Serializable[]> rows, BitSet included,
+                                           List<Serializable[]> keyRows, BitSet keyIncluded) {
+        String schema = tmed.getDatabase();
+        String table = tmed.getTable();
+        int columnCount = tmed.getColumnTypes().length;
+        List<ColumnFormat> formats = getColumns(schema, table, tmed.getColumnTypes());
+        String idCol = getPrimaryKey(schema, table);
+        if (formats == null || idCol == null)
+            return null;
+
+        List<String> names = new ArrayList<>(formats.size());
+        for (ColumnFormat format : formats)
+            names.add(format.getName());
+
+        int idIndex = -1;
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(idCol))
+                idIndex = i;
+        }
+        if (idIndex < 0)
+            return null;
+
+        // Deletes only need the id, otherwise send every column in the after image
+        List<Integer> columns = new ArrayList<>();
+        if (rows == null || !included.get(idIndex))
+            columns.add(idIndex);
+        if (rows != null) {
+            for (int i = included.nextSetBit(0); i >= 0; i = included.nextSetBit(i + 1))
+                columns.add(i);
+        }
+
+        LiveResponse response = new LiveResponse(action, schema, table);
+        for (int column : columns)
+            response.addColumn(names.get(column));
+        response.setIdColumnIndex(columns.indexOf(idIndex));
+
+        int rowCount = rows != null ? rows.size() : keyRows.size();
+        for (int r = 0; r < rowCount; r++) {
+            List<String> row = new ArrayList<>();
+            for (int column : columns) {
+                Serializable value;
+                if (rows != null && included.get(column))
+                    value = getCell(rows.get(r), included, columnCount, column);
+                else
+                    value = getCell(keyRows.get(r), keyIncluded, columnCount, column);
+                row.add(formats.get(column).format(value));
+
+                if (column == idIndex && Number.class.isInstance(value)) {
+                    long idVal = ((Number) value).longValue();
+                    if (idVal > response.largestId)
+                        response.largestId = idVal;
+                }
+            }
+            response.addRecord(row);
+        }
+
+        if (rows != null && keyRows != null)
+            response.setChangedColumns(getChangedColumns(names, columnCount, rows, included, keyRows, keyIncluded));
+        return response;
+    }
+
+
+    private static void appendSelectList(StringBuilder query, String idCol, List<String> columns) {
+        if (columns == null) {
+            query.append('*');
+            return;
+        }
+
+        // Projected loads always carry the id, names are quoted since they come from subscribers
+        List<String> selected = new ArrayList<>();
+        selected.add(idCol);
+        for (String column : columns) {
+            boolean found = false;
+            for (String s : selected)
+                found |= s.equalsIgnoreCase(column);
+            if (!found)
+                selected.add(column);
+        }
+        for (int i = 0; i < selected.size(); i++) {
+            if (i > 0)
+                query.append(", ");
+            query.append('`').append(selected.get(i).replace("`", "``")).append('`');
+        }
+    }
+
+
+    private static Set<String> getChangedColumns(List<String> names, int columnCount,
+                                                 List<Serializable[]> after, BitSet included,
+                                                 List<Serializable[]> before, BitSet beforeIncluded) {
+        // Columns missing from the before image count as changed
+        Set<String> changed = new HashSet<>();
+        for (int r = 0; r < after.size(); r++) {
+            for (int i = included.nextSetBit(0); i >= 0; i = included.nextSetBit(i + 1)) {
+                if (changed.contains(names.get(i)))
+                    continue;
+                if (!beforeIncluded.get(i) || !Objects.deepEquals(getCell(after.get(r), included, columnCount, i),
+                        getCell(before.get(r), beforeIncluded, columnCount, i)))
+                    changed.add(names.get(i));
+            }
+        }
+        return changed;
+    }
+
+
+    private static Serializable getCell(Serializable[] row, BitSet included, int columnCount, int column) {
+        // Row images only hold the included columns in table order
+        if (row.length == columnCount)
+            return row[column];
+        return row[included.get(0, column).cardinality()];
+    }
+
+
+    private static String formatResult(Object value, int sqlType) {
+        // Same strings as the row images give for the column, see ColumnFormat
+        if (value == null)
+            return null;
+        if (byte[].class.isInstance(value)) {
+            if (sqlType == Types.BIT)
+                return ColumnFormat.formatBits((byte[]) value);
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+        return value.toString();
+    }
+
+
+    private List<ColumnFormat> getColumns(String schema, String table, byte[] columnTypes) {
+        String tablePath = schema.toLowerCase() + "." + table.toLowerCase();
+        List<ColumnFormat> columns = tableColumns.get(tablePath);
+
+        // Reload if the table has been altered since the columns were cached, DDL clears the cache as well
+        if (columns == null || !Arrays.equals(columnTypes, tableColumnTypes.get(tablePath))) {
+            columns = loadColumns(schema, table);
+            if (columns == null)
+                return null;
+            tableColumns.put(tablePath, columns);
+            tableColumnTypes.put(tablePath, columnTypes.clone());
+        }
+
+        return columns.size() == columnTypes.length ? columns : null;
+    }
+
+
+    private void clearColumns() {
+        tableColumns.clear();
+        tableColumnTypes.clear();
+    }
+
+
+    private static boolean isSchemaChange(String sql) {
+        // Lower case start of the statement, altered columns may keep their count and binlog types
+        return sql.startsWith("alter") || sql.startsWith("rename") || sql.startsWith("drop")
+                || sql.startsWith("create");
+    }
+
+
+    private List<ColumnFormat> loadColumns(String schemaName, String tableName) {
+        ConnectionPool.PooledConnection con = null;
+        boolean broken = false;
+        ResultSet columns = null;
+
+        try {
+            // Column type carries what the data type doesn't, like unsigned, tinyint(1) and enum members
+            con = pool.borrow();
+            PreparedStatement stmt = con.prepareStatement("SELECT COLUMN_NAME, DATA_TYPE, COLUMN_TYPE "
+                    + "FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? "
+                    + "ORDER BY ORDINAL_POSITION");
+            stmt.setString(1, schemaName);
+            stmt.setString(2, tableName);
+            columns = stmt.executeQuery();
+            List<ColumnFormat> formats = new ArrayList<>();
+            while (columns.next())
+                formats.add(ColumnFormat.parse(columns.getString(1), columns.getString(2), columns.getString(3)));
+            return formats;
+
+        } catch (SQLException e) {
+            broken = ConnectionPool.isConnectionError(e);
+            e.printStackTrace();
+        } finally {
+            try {
+                if (columns != null)
+                    columns.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            pool.release(con, broken);
+        }
+
+        return null;
+    }
 }
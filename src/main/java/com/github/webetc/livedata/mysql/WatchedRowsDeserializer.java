@@ -0,0 +1,40 @@
+package com.github.webetc.livedata.mysql;
+
+import com.github.shyiko.mysql.binlog.event.EventData;
+import com.github.shyiko.mysql.binlog.event.deserialization.EventDataDeserializer;
+import com.github.shyiko.mysql.binlog.io.ByteArrayInputStream;
+
+import java.io.IOException;
+import java.util.Set;
+
+class WatchedRowsDeserializer implements EventDataDeserializer<EventData> {
+
+    private static final int TableIdLength = 6;
+
+    private final EventDataDeserializer<?> delegate;
+    private final Set<Long> watchedTableIds;
+
+
+    WatchedRowsDeserializer(EventDataDeserializer<?> delegate, Set<Long> watchedTableIds) {
+        this.delegate = delegate;
+        this.watchedTableIds = watchedTableIds;
+    }
+
+
+    @Override
+    public EventData deserialize(ByteArrayInputStream inputStream) throws IOException {
+        // Rows of unwatched tables come back as null data and the rest of the body is skipped
+        long tableId = inputStream.readLong(TableIdLength);
+        if (!watchedTableIds.contains(tableId))
+            return null;
+
+        // Put the table id back in front of the rest of the event body for the real deserializer
+        byte[] rest = inputStream.read(inputStream.available());
+        byte[] body = new byte[TableIdLength + rest.length];
+        for (int i = 0; i < TableIdLength; i++)
+            body[i] = (byte) (tableId >>> (8 * i));
+        System.arraycopy(rest, 0, body, TableIdLength, rest.length);
+
+        return delegate.deserialize(new ByteArrayInputStream(body));
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.webetc.livedata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StubDatabase extends LiveDatabase {
+
+    public List<String> queries = new ArrayList<>();
+    public List<String> columns = Arrays.asList("id", "userId");
+    public List<List<String>> rows = new ArrayList<>();
+    public volatile boolean failing = false;
+
+
+    public StubDatabase() {
+        super(2);
+    }
+
+
+    public void addRow(String... values) {
+        rows.add(Arrays.asList(values));
+    }
+
+
+    @Override
+    protected String loadPrimaryKey(String schemaName, String tableName) {
+        return "id";
+    }
+
+
+    @Override
+    protected LiveResponse getData(String schema, String table, LivePredicate where) {
+        synchronized (queries) {
+            queries.add(schema + "." + table + (where != null ? " " + where : ""));
+        }
+        if (failing)
+            return new LiveResponse(LiveResponse.Error, schema, table);
+        LiveResponse response = new LiveResponse(where == null ? LiveResponse.Load : LiveResponse.Modify, schema, table);
+        response.setColumns(new ArrayList<>(columns));
+        response.setRecords(new ArrayList<>());
+        LivePredicate.Evaluator evaluator = where != null ? where.compile(columns) : null;
+        for (List<String> row : rows) {
+            if (evaluator == null || evaluator.test(row))
+                response.addRecord(row);
+        }
+        return response;
+    }
+
+
+    @Override
+    protected LiveResponse getInserted(String schema, String table) {
+        return new LiveResponse(LiveResponse.Modify, schema, table);
+    }
+}
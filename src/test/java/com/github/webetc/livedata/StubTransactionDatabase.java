@@ -0,0 +1,64 @@
+package com.github.webetc.livedata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StubTransactionDatabase extends LiveTransactionDatabase {
+
+    public List<String> queries = new ArrayList<>();
+    public List<String> inserted = new ArrayList<>();
+
+
+    public StubTransactionDatabase() {
+        super(2);
+    }
+
+
+    public StubTransactionDatabase(int queueCapacity, int assembleQueueCapacity) {
+        super(2, queueCapacity, OverflowPolicy.Block, assembleQueueCapacity);
+    }
+
+
+    public void commit(String... statements) {
+        commit(null, statements);
+    }
+
+
+    public void commit(Runnable dispatched, String... statements) {
+        startTransaction();
+        for (String sql : statements)
+            processTransactionSQL("example", sql);
+        endTransaction(true, dispatched);
+    }
+
+
+    @Override
+    protected String loadPrimaryKey(String schemaName, String tableName) {
+        return "id";
+    }
+
+
+    @Override
+    protected LiveResponse getData(String schema, String table, LivePredicate where) {
+        synchronized (queries) {
+            queries.add(schema + "." + table + (where != null ? " " + where : ""));
+        }
+        LiveResponse response = new LiveResponse(where == null ? LiveResponse.Load : LiveResponse.Modify, schema, table);
+        response.addColumn("id");
+        response.addRecord(Arrays.asList("queried"));
+        return response;
+    }
+
+
+    @Override
+    protected LiveResponse getInserted(String schema, String table) {
+        synchronized (inserted) {
+            inserted.add(schema + "." + table);
+        }
+        LiveResponse response = new LiveResponse(LiveResponse.Modify, schema, table);
+        response.addColumn("id");
+        response.addRecord(Arrays.asList("inserted"));
+        return response;
+    }
+}
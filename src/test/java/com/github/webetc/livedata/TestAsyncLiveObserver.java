@@ -0,0 +1,134 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestAsyncLiveObserver {
+
+    private static class Subscriber extends Watcher implements LiveSubscriber {
+        LiveSubscription subscription;
+        final CountDownLatch failed = new CountDownLatch(1);
+        Throwable error;
+
+        @Override
+        public void onSubscribe(LiveSubscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+            failed.countDown();
+        }
+    }
+
+
+    private StubDatabase database;
+    private LiveTable table;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubDatabase();
+        table = LiveTable.get("example", "person", database);
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_plain_observer() throws Exception {
+        Watcher watcher = new Watcher();
+        table.addAsyncWatcher(watcher, Runnable::run, 10, AsyncLiveObserver.OverflowAction.Disconnect);
+        assertEquals(LiveResponse.Load, watcher.getLast().getAction());
+
+        table.notifyWatchers(new LiveResponse(LiveResponse.Modify, "example", "person"));
+        assertEquals(LiveResponse.Modify, watcher.getLast().getAction());
+    }
+
+
+    @org.junit.Test
+    public void test_demand() throws Exception {
+        Subscriber subscriber = new Subscriber();
+        AsyncLiveObserver async = table.addAsyncWatcher(subscriber, Runnable::run, 10,
+                AsyncLiveObserver.OverflowAction.Disconnect);
+
+        // Initial load waits in the mailbox until there is demand
+        waitForDepth(async, 1);
+
+        table.notifyWatchers(new LiveResponse(LiveResponse.Modify, "example", "person"));
+        subscriber.subscription.request(1);
+        List<LiveResponse> responses = subscriber.get(1);
+        assertEquals(1, responses.size());
+        assertEquals(LiveResponse.Load, responses.get(0).getAction());
+
+        subscriber.subscription.request(5);
+        assertEquals(LiveResponse.Modify, subscriber.getLast().getAction());
+    }
+
+
+    @org.junit.Test
+    public void test_overflow_disconnect() throws Exception {
+        Subscriber subscriber = new Subscriber();
+        AsyncLiveObserver async = table.addAsyncWatcher(subscriber, Runnable::run, 2,
+                AsyncLiveObserver.OverflowAction.Disconnect);
+        waitForDepth(async, 1);
+
+        for (int i = 0; i < 3; i++)
+            table.notifyWatchers(new LiveResponse(LiveResponse.Modify, "example", "person"));
+        assertEquals(1, async.getOverflowCount());
+
+        // Only the final error is left and no more responses arrive
+        subscriber.subscription.request(10);
+        List<LiveResponse> responses = subscriber.get(1);
+        assertEquals(1, responses.size());
+        assertEquals(LiveResponse.Error, responses.get(0).getAction());
+
+        table.notifyWatchers(new LiveResponse(LiveResponse.Modify, "example", "person"));
+        LiveResponse response = null;
+        try {
+            response = subscriber.getLast();
+        } catch (Exception e) {
+            // expected from watcher
+        }
+        assertNull(response);
+    }
+
+
+    @org.junit.Test
+    public void test_bad_demand() throws Exception {
+        Subscriber subscriber = new Subscriber();
+        AsyncLiveObserver async = table.addAsyncWatcher(subscriber, Runnable::run, 10,
+                AsyncLiveObserver.OverflowAction.Disconnect);
+        waitForDepth(async, 1);
+
+        // Signalled to the subscriber and the subscription ends, the caller sees nothing
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.failed.await(5, TimeUnit.SECONDS));
+        assertTrue(IllegalArgumentException.class.isInstance(subscriber.error));
+        assertEquals(0, async.getMailboxDepth());
+    }
+
+
+    private void waitForDepth(AsyncLiveObserver async, int depth) throws Exception {
+        int count = 0;
+        while (async.getMailboxDepth() < depth) {
+            Thread.sleep(20);
+            if (++count > 250)
+                throw new Exception("Mailbox never reached " + depth);
+        }
+    }
+}
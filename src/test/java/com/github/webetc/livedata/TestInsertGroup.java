@@ -0,0 +1,79 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestInsertGroup {
+
+    private StubTransactionDatabase database;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubTransactionDatabase();
+        database.setInsertGroupWindow(100);
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_grouped_inserts() throws Exception {
+        Watcher watcher = new Watcher();
+        LiveTable.get("example", "phone", database).addWatcher(watcher, false);
+
+        database.commit("insert into phone (id, userId) values (10, 1)");
+        database.commit("update phone set userId = 2 where id = 5");
+        database.commit("insert into phone (id, userId) values (11, 1)");
+
+        // Both inserts come from one query sent ahead of the update
+        List<LiveResponse> responses = watcher.get(2);
+        assertEquals(2, responses.size());
+        assertEquals("inserted", responses.get(0).getRecords().get(0).get(0));
+        assertEquals("5", responses.get(1).getRecords().get(0).get(0));
+        assertEquals(Arrays.asList("example.phone"), database.inserted);
+        assertEquals(1, database.getCoalescedInsertCount());
+    }
+
+
+    @org.junit.Test
+    public void test_no_window() throws Exception {
+        database.setInsertGroupWindow(0);
+        Watcher watcher = new Watcher();
+        LiveTable.get("example", "phone", database).addWatcher(watcher, false);
+
+        database.commit("insert into phone (id, userId) values (10, 1)");
+        database.commit("insert into phone (id, userId) values (11, 1)");
+
+        watcher.get(2);
+        assertEquals(2, database.inserted.size());
+    }
+
+
+    @org.junit.Test
+    public void test_dispatched_in_order() throws Exception {
+        LiveTable.get("example", "phone", database).addWatcher(new Watcher(), false);
+        List<String> dispatched = Collections.synchronizedList(new ArrayList<>());
+        database.commit(() -> dispatched.add("insert"), "insert into phone (id, userId) values (10, 1)");
+        database.commit(() -> dispatched.add("empty"));
+
+        // Even a transaction with nothing watched waits for the group ahead of it
+        int count = 0;
+        while (dispatched.size() < 2 && count++ < 50)
+            Thread.sleep(20);
+        assertEquals(Arrays.asList("insert", "empty"), dispatched);
+        assertEquals(1, database.inserted.size());
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.webetc.livedata;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestLiveChangeSet {
+
+    @org.junit.Test
+    public void test_last_write_wins() throws Exception {
+        LiveChangeSet changes = new LiveChangeSet();
+        changes.add(modify(Arrays.asList("id", "userId"), Arrays.asList("5", "1")), false);
+        changes.add(modify(Arrays.asList("userId", "id"), Arrays.asList("2", "5")), false);
+        changes.add(modify(Arrays.asList("id", "userId"), Arrays.asList("6", "3")), false);
+
+        List<LiveResponse> responses = changes.getModifications();
+        assertEquals(1, responses.size());
+        assertEquals(Arrays.asList("id", "userId"), responses.get(0).getColumns());
+        assertEquals(Arrays.asList(Arrays.asList("5", "2"), Arrays.asList("6", "3")), responses.get(0).getRecords());
+        assertEquals(new HashSet<>(Collections.singletonList("userId")), responses.get(0).getChangedColumns());
+        assertEquals(1, changes.getMergedCount());
+    }
+
+
+    @org.junit.Test
+    public void test_update_then_delete() throws Exception {
+        LiveChangeSet changes = new LiveChangeSet();
+        changes.add(modify(Arrays.asList("id", "userId"), Arrays.asList("5", "1")), false);
+        changes.add(delete("5"), false);
+
+        assertEquals(0, changes.getModifications().size());
+        assertEquals(Collections.singletonList(Collections.singletonList("5")),
+                changes.getDeletes().get(0).getRecords());
+    }
+
+
+    @org.junit.Test
+    public void test_insert_then_delete() throws Exception {
+        LiveChangeSet changes = new LiveChangeSet();
+        changes.add(modify(Arrays.asList("id", "userId"), Arrays.asList("5", "1")), true);
+        changes.add(modify(Arrays.asList("id", "userId"), Arrays.asList("5", "2")), false);
+        changes.add(delete("5"), false);
+
+        // Nobody saw the row so there is nothing to send
+        assertTrue(changes.getModifications().isEmpty());
+        assertTrue(changes.getDeletes().isEmpty());
+    }
+
+
+    @org.junit.Test
+    public void test_delete_then_insert() throws Exception {
+        LiveChangeSet changes = new LiveChangeSet();
+        changes.add(delete("5"), false);
+        changes.add(modify(Arrays.asList("id", "userId"), Arrays.asList("5", "4")), true);
+
+        List<LiveResponse> responses = changes.getModifications();
+        assertEquals(Collections.singletonList(Arrays.asList("5", "4")), responses.get(0).getRecords());
+        assertNull(responses.get(0).getChangedColumns());
+        assertTrue(changes.getDeletes().isEmpty());
+    }
+
+
+    @org.junit.Test
+    public void test_unkeyed() throws Exception {
+        LiveChangeSet changes = new LiveChangeSet();
+        LiveResponse response = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        assertEquals(false, changes.add(response, false));
+        assertEquals(false, changes.add(new LiveResponse(LiveResponse.Error, "example", "phone"), false));
+    }
+
+
+    private LiveResponse modify(List<String> columns, List<String> record) {
+        LiveResponse response = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        response.setColumns(columns);
+        response.setIdColumnIndex(columns.indexOf("id"));
+        response.addRecord(record);
+        response.setChangedColumns(new HashSet<>(Collections.singletonList("userId")));
+        return response;
+    }
+
+
+    private LiveResponse delete(String id) {
+        LiveResponse response = new LiveResponse(LiveResponse.Delete, "example", "phone");
+        response.addColumn("id");
+        response.addRecord(Collections.singletonList(id));
+        return response;
+    }
+}
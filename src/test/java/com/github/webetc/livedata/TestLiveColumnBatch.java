@@ -0,0 +1,85 @@
+package com.github.webetc.livedata;
+
+import com.google.gson.Gson;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+
+public class TestLiveColumnBatch {
+
+    @org.junit.Test
+    public void test_row_view() throws Exception {
+        LiveColumnBatch batch = new LiveColumnBatch(LiveColumnBatch.Type.Long, LiveColumnBatch.Type.Double,
+                LiveColumnBatch.Type.String);
+        for (int i = 0; i < 100; i++) {
+            batch.getVector(0).appendLong(i);
+            if (i % 2 == 0)
+                batch.getVector(1).appendNull();
+            else
+                batch.getVector(1).appendDouble(i / 2.0);
+            batch.getVector(2).appendString(i % 3 == 0 ? "red" : "blue");
+            batch.endRow();
+        }
+
+        assertEquals(100, batch.size());
+        assertEquals(Arrays.asList("3", "1.5", "red"), batch.rows().get(3));
+        assertEquals(Arrays.asList("64", null, "blue"), batch.rows().get(64));
+        assertTrue(batch.getVector(1).isNull(64));
+
+        // Repeated strings are stored once
+        assertEquals(2, ((LiveColumnBatch.DictionaryVector) batch.getVector(2)).getDictionary().size());
+    }
+
+
+    @org.junit.Test
+    public void test_response() throws Exception {
+        LiveColumnBatch batch = new LiveColumnBatch(LiveColumnBatch.Type.Int, LiveColumnBatch.Type.Bytes);
+        batch.getVector(0).appendInt(7);
+        batch.getVector(1).appendBytes("abc".getBytes("UTF-8"));
+        batch.endRow();
+
+        LiveResponse response = new LiveResponse(LiveResponse.Load, "test", "user");
+        response.addColumn("id");
+        response.addColumn("name");
+        response.setColumnar(batch);
+
+        assertTrue(response.isColumnar());
+        assertEquals("{\"action\":\"L\",\"schema\":\"test\",\"table\":\"user\",\"idColumnIndex\":0,"
+                + "\"columns\":[\"id\",\"name\"],\"records\":[[\"7\",\"abc\"]]}", new Gson().toJson(response));
+    }
+
+
+    @org.junit.Test(expected = IllegalStateException.class)
+    public void test_incomplete_row() throws Exception {
+        LiveColumnBatch batch = new LiveColumnBatch(LiveColumnBatch.Type.Long, LiveColumnBatch.Type.Long);
+        batch.getVector(0).appendLong(1);
+        batch.endRow();
+    }
+
+
+    @org.junit.Test
+    public void test_high_cardinality() throws Exception {
+        LiveColumnBatch batch = new LiveColumnBatch(LiveColumnBatch.Type.String);
+        LiveColumnBatch.DictionaryVector vector = (LiveColumnBatch.DictionaryVector) batch.getVector(0);
+        int count = LiveColumnBatch.DictionaryVector.MaxDictionarySize + 10;
+        for (int i = 0; i < count; i++) {
+            vector.appendString(i == 5 ? null : "name" + i);
+            batch.endRow();
+        }
+
+        // Too many distinct values to be worth a dictionary, rows read the same
+        assertFalse(vector.isEncoded());
+        assertEquals(0, vector.getDictionary().size());
+        assertEquals("name0", batch.rows().get(0).get(0));
+        assertNull(batch.rows().get(5).get(0));
+        assertEquals("name" + (count - 1), batch.rows().get(count - 1).get(0));
+    }
+
+
+    @org.junit.Test(expected = IllegalStateException.class)
+    public void test_wrong_type() throws Exception {
+        new LiveColumnBatch(LiveColumnBatch.Type.Double).getVector(0).appendLong(1);
+    }
+}
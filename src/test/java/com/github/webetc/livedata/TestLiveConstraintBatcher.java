@@ -0,0 +1,103 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestLiveConstraintBatcher {
+
+    private StubDatabase database;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubDatabase();
+        database.addRow("10", "1");
+        database.addRow("20", "2");
+        database.addRow("30", "3");
+        database.setConstraintBatchWindow(100);
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_batched_load() throws Exception {
+        Watcher first = new Watcher();
+        Watcher second = new Watcher();
+        LiveKeyCollection a = new LiveKeyCollection("example", "phone", "userId", database, first);
+        LiveKeyCollection b = new LiveKeyCollection("example", "phone", "userId", database, second);
+        a.addConstraint("1");
+        b.addConstraints(Arrays.asList("2", "3"));
+
+        // Each collection only gets the rows for its own keys
+        LiveResponse response = first.getLast();
+        assertEquals(1, response.getRecords().size());
+        assertEquals("10", response.getRecords().get(0).get(0));
+        response = second.getLast();
+        assertEquals(2, response.getRecords().size());
+
+        assertEquals(1, database.queries.size());
+        assertTrue(database.queries.get(0).contains("in ("));
+    }
+
+
+    @org.junit.Test
+    public void test_batch_size_cap() throws Exception {
+        database.setConstraintBatchWindow(60000);
+        database.setConstraintBatchSize(2);
+        Watcher watcher = new Watcher();
+        LiveKeyCollection collection = new LiveKeyCollection("example", "phone", "userId", database, watcher);
+        collection.addConstraints(Arrays.asList("1", "2"));
+
+        // Full batch loads without waiting for the window
+        assertEquals(2, watcher.getLast().getRecords().size());
+    }
+
+
+    @org.junit.Test
+    public void test_stale_timer() throws Exception {
+        database.setConstraintBatchWindow(1000);
+        database.setConstraintBatchSize(2);
+        Watcher first = new Watcher();
+        Watcher second = new Watcher();
+        LiveKeyCollection a = new LiveKeyCollection("example", "phone", "userId", database, first);
+        LiveKeyCollection b = new LiveKeyCollection("example", "phone", "userId", database, second);
+        a.addConstraint("1");
+        a.addConstraint("2");
+        first.getLast();
+
+        // The full batch's timer fires during the next batch's window without flushing it
+        Thread.sleep(400);
+        b.addConstraint("3");
+        Thread.sleep(700);
+        assertEquals(1, database.queries.size());
+        assertEquals(1, second.getLast().getRecords().size());
+        assertEquals(2, database.queries.size());
+    }
+
+
+    @org.junit.Test
+    public void test_failed_batch() throws Exception {
+        database.failing = true;
+        Watcher first = new Watcher();
+        Watcher second = new Watcher();
+        LiveKeyCollection a = new LiveKeyCollection("example", "phone", "userId", database, first);
+        LiveKeyCollection b = new LiveKeyCollection("example", "phone", "userId", database, second);
+        a.addConstraint("1");
+        b.addConstraint("2");
+
+        // Every requester hears about the failure
+        assertEquals(LiveResponse.Error, first.getLast().getAction());
+        assertEquals(LiveResponse.Error, second.getLast().getAction());
+    }
+}
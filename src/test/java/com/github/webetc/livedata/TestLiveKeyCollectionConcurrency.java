@@ -0,0 +1,87 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestLiveKeyCollectionConcurrency {
+
+    private StubDatabase database;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubDatabase();
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_remove_during_batch() throws Exception {
+        Watcher watcher = new Watcher();
+        LiveKeyCollection collection = new LiveKeyCollection("example", "phone", "userId", "2", database, watcher);
+        CountDownLatch removed = new CountDownLatch(1);
+        boolean[] removedMidBatch = {false};
+
+        // Halfway through the batch another thread drops the constraint and must not wait for the batch
+        List<List<String>> rows = new AbstractList<List<String>>() {
+            @Override
+            public List<String> get(int row) {
+                if (row == 1000 && removed.getCount() > 0) {
+                    new Thread(() -> {
+                        collection.removeConstraint("2");
+                        removed.countDown();
+                    }).start();
+                    try {
+                        removedMidBatch[0] = removed.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return Arrays.asList(String.valueOf(row + 1), "2");
+            }
+
+            @Override
+            public int size() {
+                return 2000;
+            }
+        };
+        LiveResponse change = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        change.setColumns(Arrays.asList("id", "userId"));
+        change.setRecords(rows);
+        collection.send(change);
+        assertTrue(removedMidBatch[0]);
+
+        // Rows indexed before the removal went out after its delete, so they are deleted again
+        List<LiveResponse> responses = watcher.get(3);
+        assertEquals(3, responses.size());
+        assertEquals(LiveResponse.Delete, responses.get(0).getAction());
+        assertEquals(1000, responses.get(0).getRecords().size());
+        assertEquals(LiveResponse.Modify, responses.get(1).getAction());
+        assertEquals(1000, responses.get(1).getRecords().size());
+        assertEquals(LiveResponse.Delete, responses.get(2).getAction());
+        assertEquals(1000, responses.get(2).getRecords().size());
+
+        // Nothing is left indexed for the removed key
+        watcher.reset();
+        change = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        change.setColumns(Arrays.asList("id", "userId"));
+        change.addRecord(Arrays.asList("5", "2"));
+        collection.send(change);
+        assertEquals(0, watcher.get(0).size());
+    }
+}
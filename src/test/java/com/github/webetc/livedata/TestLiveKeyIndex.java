@@ -0,0 +1,57 @@
+package com.github.webetc.livedata;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+
+public class TestLiveKeyIndex {
+
+    @org.junit.Test
+    public void test_numeric() throws Exception {
+        LiveKeyIndex index = new LiveKeyIndex();
+        for (int id = 1; id <= 10000; id++)
+            index.put(String.valueOf(id), String.valueOf(id % 10));
+
+        assertTrue(index.isNumeric());
+        assertEquals(10000, index.size());
+        assertEquals("3", index.getKey("9993"));
+
+        // Moving a row to another key takes it out of the old key's ids
+        index.put("13", "4");
+        assertEquals(999, index.removeKey("3").size());
+        assertFalse(index.contains("23"));
+        assertTrue(index.contains("13"));
+
+        for (int id = 1; id <= 10000; id++)
+            index.remove(String.valueOf(id));
+        assertEquals(0, index.size());
+        assertTrue(index.removeKey("4").isEmpty());
+    }
+
+
+    @org.junit.Test
+    public void test_string_fallback() throws Exception {
+        LiveKeyIndex index = new LiveKeyIndex();
+        index.put("1", "10");
+        index.put("2", "10");
+
+        // Leading zeros wouldn't survive a round trip through long
+        index.put("007", "10");
+        assertFalse(index.isNumeric());
+        assertEquals("10", index.getKey("1"));
+        assertEquals(new HashSet<>(Arrays.asList("1", "2", "007")), new HashSet<>(index.removeKey("10")));
+        assertEquals(0, index.size());
+    }
+
+
+    @org.junit.Test
+    public void test_parse() throws Exception {
+        assertEquals(-42L, LiveKeyIndex.parse("-42"));
+        assertEquals(Long.MAX_VALUE, LiveKeyIndex.parse(String.valueOf(Long.MAX_VALUE)));
+        assertEquals(Long.MIN_VALUE, LiveKeyIndex.parse("9223372036854775808"));
+        assertEquals(Long.MIN_VALUE, LiveKeyIndex.parse("-0"));
+        assertEquals(Long.MIN_VALUE, LiveKeyIndex.parse("1.5"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.webetc.livedata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestLivePredicate {
+
+    @org.junit.Test
+    public void test_in_bucket() throws Exception {
+        StringBuilder sql = new StringBuilder();
+        List<Object> parameters = new ArrayList<>();
+        LivePredicate.in("userId", Arrays.asList("1", "2", "3")).toSql(sql, parameters);
+
+        // Padded up to the next bucket by repeating the last value
+        assertEquals("`userId` in (?, ?, ?, ?)", sql.toString());
+        assertEquals(Arrays.asList("1", "2", "3", "3"), parameters);
+    }
+
+
+    @org.junit.Test
+    public void test_quoted_value() throws Exception {
+        StringBuilder sql = new StringBuilder();
+        List<Object> parameters = new ArrayList<>();
+        LivePredicate.eq("name", "O'Brien").toSql(sql, parameters);
+        assertEquals("`name` = ?", sql.toString());
+        assertEquals("O'Brien", parameters.get(0));
+
+        sql = new StringBuilder();
+        LivePredicate.eq("odd`name", 1).toSql(sql, parameters);
+        assertEquals("`odd``name` = ?", sql.toString());
+    }
+
+
+    @org.junit.Test
+    public void test_chunk() throws Exception {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2500; i++)
+            keys.add(String.valueOf(i));
+        List<LivePredicate> chunks = LivePredicate.in("id", keys).chunk(LivePredicate.MaxInListSize);
+        assertEquals(3, chunks.size());
+
+        // An and keeps its other members in every chunk, an or can't be split without repeating rows
+        LivePredicate age = LivePredicate.compare("age", ">", 20);
+        chunks = LivePredicate.and(age, LivePredicate.in("id", keys)).chunk(LivePredicate.MaxInListSize);
+        assertEquals(3, chunks.size());
+        assertEquals(LivePredicate.and(age, LivePredicate.in("id", keys.subList(2048, 2500))), chunks.get(2));
+        assertEquals(1, LivePredicate.or(age, LivePredicate.in("id", keys)).chunk(LivePredicate.MaxInListSize).size());
+    }
+
+
+    @org.junit.Test
+    public void test_junction_sql() throws Exception {
+        StringBuilder sql = new StringBuilder();
+        List<Object> parameters = new ArrayList<>();
+        LivePredicate.and(LivePredicate.compare("age", ">", 20),
+                LivePredicate.or(LivePredicate.eq("name", "Ann"), LivePredicate.eq("name", "Bob"))).toSql(sql, parameters);
+        assertEquals("(`age` > ? and (`name` = ? or `name` = ?))", sql.toString());
+        assertEquals(Arrays.asList(20, "Ann", "Bob"), parameters);
+    }
+
+
+    @org.junit.Test
+    public void test_evaluate() throws Exception {
+        List<String> columns = Arrays.asList("id", "Age", "name");
+        LivePredicate.Evaluator evaluator = LivePredicate.and(LivePredicate.compare("age", ">", 9),
+                LivePredicate.in("name", Arrays.asList("ann", "bob"))).compile(columns);
+
+        // Numbers compare as numbers, text ignores case
+        assertTrue(evaluator.test(Arrays.asList("1", "10", "Ann")));
+        assertFalse(evaluator.test(Arrays.asList("1", "9", "Ann")));
+        assertFalse(evaluator.test(Arrays.asList("1", "10", "Cid")));
+
+        assertTrue(LivePredicate.in("age", Arrays.asList(1, 2)).compile(columns).test(Arrays.asList("1", "2.0", null)));
+        assertFalse(LivePredicate.compare("name", "<>", "x").compile(columns).test(Arrays.asList("1", "2", null)));
+        assertFalse(LivePredicate.eq("missing", "x").compile(columns).test(Arrays.asList("1", "2", "x")));
+
+        // Text that looks like a number still compares as text
+        assertFalse(LivePredicate.eq("name", "7").compile(columns).test(Arrays.asList("1", "2", "007")));
+        assertTrue(LivePredicate.eq("name", 7).compile(columns).test(Arrays.asList("1", "2", "007")));
+        assertFalse(LivePredicate.in("name", Arrays.asList("7", "8")).compile(columns).test(Arrays.asList("1", "2", "007")));
+    }
+}
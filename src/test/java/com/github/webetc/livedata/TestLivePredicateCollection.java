@@ -0,0 +1,129 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestLivePredicateCollection {
+
+    private StubDatabase database;
+    private Watcher watcher;
+    private LivePredicateCollection collection;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubDatabase();
+        database.columns = Arrays.asList("id", "userId", "number");
+        database.addRow("10", "1", "555");
+        database.addRow("20", "2", "556");
+        database.addRow("30", "3", "557");
+        watcher = new Watcher();
+        collection = new LivePredicateCollection("example", "phone",
+                LivePredicate.or(LivePredicate.eq("userId", 1), LivePredicate.compare("userId", ">=", 3)),
+                database, watcher);
+
+        // Only matching rows come from the load
+        LiveResponse load = watcher.getLast();
+        assertEquals(LiveResponse.Load, load.getAction());
+        assertEquals(Arrays.asList(Arrays.asList("10", "1", "555"), Arrays.asList("30", "3", "557")), load.getRecords());
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_enter_and_leave() throws Exception {
+        change(LiveResponse.Modify, database.columns, 0, Arrays.asList("20", "4", "556"));
+        LiveResponse response = watcher.getLast();
+        assertEquals(LiveResponse.Modify, response.getAction());
+        assertEquals(Arrays.asList("20", "4", "556"), response.getRecords().get(0));
+
+        change(LiveResponse.Modify, Arrays.asList("id", "userId"), 0, Arrays.asList("10", "2"));
+        response = watcher.getLast();
+        assertEquals(LiveResponse.Delete, response.getAction());
+        assertEquals(Collections.singletonList("10"), response.getRecords().get(0));
+
+        // Rows that never matched don't show up at all
+        change(LiveResponse.Modify, database.columns, 0, Arrays.asList("50", "2", "558"));
+        change(LiveResponse.Delete, Collections.singletonList("id"), 0, Collections.singletonList("30"));
+        response = watcher.getLast();
+        assertEquals(Collections.singletonList("30"), response.getRecords().get(0));
+
+        assertEquals(1, collection.size());
+        assertEquals(1, collection.getEnteredCount());
+        assertEquals(2, collection.getLeftCount());
+    }
+
+
+    @org.junit.Test
+    public void test_partial_row_fetched() throws Exception {
+        database.addRow("40", "1", "559");
+
+        // Only the changed column, the full row comes from the database
+        change(LiveResponse.Modify, Arrays.asList("userId", "id"), 1, Arrays.asList("1", "40"));
+        LiveResponse response = watcher.getLast();
+        assertEquals(Arrays.asList(Arrays.asList("40", "1", "559")), response.getRecords());
+        assertEquals(1, collection.getFetchCount());
+        assertEquals("example.phone ((`userId` = ? or `userId` >= ?) and `id` = ?) [1, 3, 40]", database.queries.get(1));
+
+        // Partial rows that can't match and held rows need no query
+        change(LiveResponse.Modify, Arrays.asList("userId", "id"), 1, Arrays.asList("2", "60"));
+        change(LiveResponse.Modify, Arrays.asList("userId", "id"), 1, Arrays.asList("7", "30"));
+        assertEquals(Arrays.asList(Arrays.asList("30", "7", "557")), watcher.getLast().getRecords());
+        assertEquals(2, database.queries.size());
+    }
+
+
+    @org.junit.Test
+    public void test_failed_load() throws Exception {
+        database.failing = true;
+        Watcher failed = new Watcher();
+        new LivePredicateCollection("example", "phone", LivePredicate.eq("userId", 2), database, failed);
+        assertEquals(LiveResponse.Error, failed.getLast().getAction());
+
+        // The next table reset loads again instead of leaving the collection dead
+        database.failing = false;
+        change(LiveResponse.Error, null, 0, null);
+        LiveResponse load = failed.getLast();
+        assertEquals(LiveResponse.Load, load.getAction());
+        assertEquals(Arrays.asList(Arrays.asList("20", "2", "556")), load.getRecords());
+    }
+
+
+    @org.junit.Test
+    public void test_large_fetch() throws Exception {
+        LiveResponse response = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        response.setColumns(Arrays.asList("id", "userId"));
+        for (int i = 0; i < LivePredicate.MaxInListSize + 5; i++)
+            response.addRecord(Arrays.asList(String.valueOf(1000 + i), "1"));
+        database.add(LiveDatabase.LiveEvent.create(Collections.singletonList(response)));
+
+        // Unknown ids are fetched in IN sized slices
+        int count = 0;
+        while (database.queries.size() < 3 && count++ < 100)
+            Thread.sleep(20);
+        assertEquals(2, collection.getFetchCount());
+        assertEquals(3, database.queries.size());
+    }
+
+
+    private void change(String action, List<String> columns, int idColumnIndex, List<String> record) {
+        LiveResponse response = new LiveResponse(action, "example", "phone");
+        response.setColumns(columns);
+        response.setIdColumnIndex(idColumnIndex);
+        if (record != null)
+            response.addRecord(record);
+        database.add(LiveDatabase.LiveEvent.create(Collections.singletonList(response)));
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestLiveProjection {
+
+    private StubDatabase database;
+    private LiveTable table;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubDatabase();
+        database.columns = Arrays.asList("id", "number", "updated_at");
+        database.addRow("10", "555", "2017-01-01");
+        table = LiveTable.get("example", "phone", database);
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_projected_load() throws Exception {
+        Watcher watcher = new Watcher();
+        table.addWatcher(watcher, true, Collections.singletonList("NUMBER"));
+
+        // The id always comes along so the rows can still be tracked
+        LiveResponse load = watcher.getLast();
+        assertEquals(Arrays.asList("id", "number"), load.getColumns());
+        assertEquals(Arrays.asList(Arrays.asList("10", "555")), load.getRecords());
+    }
+
+
+    @org.junit.Test
+    public void test_irrelevant_updates() throws Exception {
+        Watcher watcher = new Watcher();
+        LiveProjection projection = table.addWatcher(watcher, false, Collections.singletonList("number"));
+
+        change(database.columns, Arrays.asList("10", "555", "2017-01-02"), "updated_at");
+        change(Arrays.asList("id", "updated_at"), Arrays.asList("10", "2017-01-03"), "updated_at");
+        change(database.columns, Arrays.asList("10", "556", "2017-01-04"), "number", "updated_at");
+
+        LiveResponse response = watcher.getLast();
+        assertEquals(Arrays.asList("id", "number"), response.getColumns());
+        assertEquals(Arrays.asList(Arrays.asList("10", "556")), response.getRecords());
+        assertEquals(2, projection.getSuppressedCount());
+
+        // Removal finds the projection by the observer it wraps
+        table.removeWatcher(watcher);
+        change(database.columns, Arrays.asList("10", "557", "2017-01-05"), "number");
+        Thread.sleep(200);
+        assertEquals(0, watcher.get(0).size());
+    }
+
+
+    @org.junit.Test
+    public void test_unknown_changes() throws Exception {
+        Watcher watcher = new Watcher();
+        LiveProjection projection = table.addWatcher(watcher, false, Collections.<String>emptyList());
+
+        // Inserts and re-queried rows don't say what changed so an id only watcher still sees them
+        change(database.columns, Arrays.asList("20", "560", "2017-01-06"), (String[]) null);
+        LiveResponse response = watcher.getLast();
+        assertEquals(Collections.singletonList("id"), response.getColumns());
+        assertEquals(Arrays.asList(Arrays.asList("20")), response.getRecords());
+
+        change(Arrays.asList("id", "updated_at"), Arrays.asList("20", "2017-01-07"), (String[]) null);
+        assertEquals(Arrays.asList(Arrays.asList("20")), watcher.getLast().getRecords());
+        assertEquals(0, projection.getSuppressedCount());
+    }
+
+
+    private void change(List<String> columns, List<String> record, String... changed) {
+        LiveResponse response = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        response.setColumns(columns);
+        response.addRecord(record);
+        if (changed != null)
+            response.setChangedColumns(new HashSet<>(Arrays.asList(changed)));
+        database.add(LiveDatabase.LiveEvent.create(Collections.singletonList(response)));
+    }
+}
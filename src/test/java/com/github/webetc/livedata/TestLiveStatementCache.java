@@ -0,0 +1,64 @@
+package com.github.webetc.livedata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestLiveStatementCache {
+
+    @org.junit.Test
+    public void test_template() throws Exception {
+        List<String> literals = new ArrayList<>();
+        String template = LiveStatementCache.toTemplate(
+                "update `t1` set name = 'it''s', score = 1.50, n = -3 where id = 007", literals);
+        assertEquals("update `t1` set name = :p0, score = :p1, n = -3 where id = :p2", template);
+        assertEquals(Arrays.asList("it''s", "1.5", "7"), literals);
+    }
+
+
+    @org.junit.Test
+    public void test_template_escapes() throws Exception {
+        List<String> literals = new ArrayList<>();
+        String template = LiveStatementCache.toTemplate(
+                "update t1 set name = 'it\\'s', dir = 'c:\\\\' -- don't\nwhere id = 4 # it's", literals);
+        assertEquals("update t1 set name = :p0, dir = :p1  \nwhere id = :p2  ", template);
+        assertEquals(Arrays.asList("it\\'s", "c:\\\\", "4"), literals);
+    }
+
+
+    @org.junit.Test
+    public void test_hits() throws Exception {
+        LiveStatementCache cache = new LiveStatementCache(LiveStatementCache.DefaultSize);
+        cache.parse("update user set name = 'a', age = 30 where id = 1");
+        LiveStatementCache.Parsed parsed = cache.parse("update user set name = 'b', age = 31 where id = 2");
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(LiveStatementCache.Type.Update, parsed.plan.type);
+        assertEquals("id", parsed.plan.whereColumn);
+        assertEquals(Arrays.asList("name", "age"), parsed.plan.columns);
+        assertEquals("2", parsed.whereValues().get(0));
+        assertEquals("b", parsed.setValue(0));
+        assertEquals("31", parsed.setValue(1));
+    }
+
+
+    @org.junit.Test
+    public void test_fallback() throws Exception {
+        LiveStatementCache cache = new LiveStatementCache(LiveStatementCache.DefaultSize);
+
+        // The parser doesn't take a parameter in a date escape so the original gets parsed
+        LiveStatementCache.Parsed parsed = cache.parse("update user set born = {d '2017-01-02'} where id = 5");
+        assertEquals("5", parsed.whereValues().get(0));
+        assertEquals("2017-01-02", parsed.setValue(0));
+        cache.parse("update user set born = {d '2017-01-03'} where id = 6");
+        assertEquals(0, cache.getHitCount());
+
+        // Non literal values come through as null like before
+        parsed = cache.parse("update user set age = age + 1 where id = 5");
+        assertEquals(null, parsed.setValue(0));
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.webetc.livedata;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class TestLiveStatementMatcher {
+
+    private final LiveTableKey user = LiveTableKey.of("example", "user");
+    private final LiveTableKey phone = LiveTableKey.of("other", "phone");
+    private final LiveStatementMatcher matcher = new LiveStatementMatcher(Arrays.asList(user, phone));
+
+
+    @org.junit.Test
+    public void test_statement_forms() throws Exception {
+        assertEquals(user, matcher.match("example", "update user set name = 'a' where id = 1"));
+        assertEquals(user, matcher.match("example", "INSERT INTO `user`(id) values (1)"));
+        assertEquals(user, matcher.match("example", "  delete\n  from\tUser where id = 1"));
+        assertEquals(phone, matcher.match("example", "update `other`.`phone` set number = 1"));
+        assertEquals(phone, matcher.match(null, "insert other.phone values (1)"));
+    }
+
+
+    @org.junit.Test
+    public void test_not_watched() throws Exception {
+        assertNull(matcher.match("other", "update user set name = 'a'"));
+        assertNull(matcher.match("example", "update users set name = 'a'"));
+        assertNull(matcher.match("example", "update example.phone set number = 1"));
+        assertNull(matcher.match("example", "select * from user"));
+        assertNull(matcher.match("example", "updateuser set name = 'a'"));
+        assertNull(matcher.match("example", "delete user where id = 1"));
+        assertNull(matcher.match("example", "update `user"));
+    }
+}
@@ -0,0 +1,187 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestLiveTableReplica {
+
+    private StubDatabase database;
+    private LiveTable table;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubDatabase();
+        database.addRow("10", "1");
+        database.addRow("20", "2");
+        database.setConstraintBatchWindow(0);
+        table = LiveTable.get("example", "phone", database);
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_served_from_memory() throws Exception {
+        LiveTableReplica replica = ready(table.replicate(LiveTableReplica.DefaultMaxRows, "userId"));
+        Watcher watcher = new Watcher();
+        table.addWatcher(watcher, false);
+
+        LiveResponse change = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        change.setColumns(Arrays.asList("id", "userId"));
+        change.addRecord(Arrays.asList("30", "1"));
+        database.add(LiveDatabase.LiveEvent.create(Collections.singletonList(change)));
+        watcher.getLast();
+
+        table.reload(watcher);
+        assertEquals(3, watcher.getLast().getRecords().size());
+
+        // Constraint loads on the indexed column don't query either
+        Watcher keys = new Watcher();
+        new LiveKeyCollection("example", "phone", "userId", database, keys).addConstraint("1");
+        LiveResponse response = keys.getLast();
+        assertEquals(Arrays.asList(Arrays.asList("10", "1"), Arrays.asList("30", "1")), response.getRecords());
+
+        assertEquals(1, database.queries.size());
+        assertEquals(2, replica.getHitCount());
+        assertEquals(3, replica.getRowCount());
+    }
+
+
+    @org.junit.Test
+    public void test_partial_update() throws Exception {
+        LiveTableReplica replica = ready(table.replicate(LiveTableReplica.DefaultMaxRows, "userId"));
+
+        // Statement resolved updates only carry the changed columns
+        LiveResponse change = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        change.setColumns(Arrays.asList("userId", "id"));
+        change.setIdColumnIndex(1);
+        change.addRecord(Arrays.asList("5", "20"));
+        LiveResponse delete = new LiveResponse(LiveResponse.Delete, "example", "phone");
+        delete.addColumn("id");
+        delete.addRecord(Collections.singletonList("10"));
+        database.add(LiveDatabase.LiveEvent.create(Arrays.asList(change, delete)));
+
+        Watcher watcher = new Watcher();
+        database.add(LiveDatabase.LiveEvent.create("example", "phone", LivePredicate.eq("userId", "5"), watcher));
+        assertEquals(Collections.singletonList(Arrays.asList("20", "5")), watcher.getLast().getRecords());
+        assertEquals(1, replica.getRowCount());
+    }
+
+
+    @org.junit.Test
+    public void test_overflow() throws Exception {
+        LiveTableReplica replica = table.replicate(1);
+        waitFor(replica, LiveTableReplica.State.Overflow);
+
+        Watcher watcher = new Watcher();
+        table.addWatcher(watcher);
+        assertEquals(2, watcher.getLast().getRecords().size());
+        assertEquals(2, database.queries.size());
+        assertEquals(0, replica.getRowCount());
+    }
+
+
+    @org.junit.Test
+    public void test_error_reloads() throws Exception {
+        LiveTableReplica replica = ready(table.replicate(LiveTableReplica.DefaultMaxRows));
+        Watcher watcher = new Watcher();
+        table.addWatcher(watcher, false);
+        database.add(LiveDatabase.LiveEvent.create(Collections.singletonList(
+                new LiveResponse(LiveResponse.Error, "example", "phone"))));
+        watcher.getLast();
+        ready(replica);
+        assertEquals(1, replica.getReloadCount());
+        assertEquals(2, database.queries.size());
+    }
+
+
+    @org.junit.Test
+    public void test_failed_load() throws Exception {
+        database.failing = true;
+        LiveTableReplica replica = table.replicate(LiveTableReplica.DefaultMaxRows);
+        int count = 0;
+        while (replica.getReloadCount() < 1) {
+            Thread.sleep(20);
+            if (++count > 100)
+                throw new Exception("Replica never retried its load");
+        }
+
+        // Keeps trying until the database answers
+        database.failing = false;
+        ready(replica);
+        assertEquals(2, replica.getRowCount());
+    }
+
+
+    @org.junit.Test
+    public void test_unknown_values() throws Exception {
+        LiveTableReplica replica = ready(table.replicate(LiveTableReplica.DefaultMaxRows, "userId"));
+        Watcher watcher = new Watcher();
+        table.addWatcher(watcher, false);
+
+        // A changed column sent without its value is read again rather than merged
+        LiveResponse change = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        change.setColumns(Arrays.asList("id"));
+        change.addRecord(Collections.singletonList("10"));
+        change.setChangedColumns(Collections.singleton("userId"));
+        database.add(LiveDatabase.LiveEvent.create(Collections.singletonList(change)));
+        watcher.getLast();
+        ready(replica);
+        assertEquals(1, replica.getReloadCount());
+        assertEquals(2, replica.getRowCount());
+    }
+
+
+    @org.junit.Test
+    public void test_collation() throws Exception {
+        LiveTableReplica replica = ready(table.replicate(LiveTableReplica.DefaultMaxRows, "userId"));
+        LiveResponse change = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        change.setColumns(Arrays.asList("id", "userId"));
+        change.addRecord(Arrays.asList("30", "Bob  "));
+        database.add(LiveDatabase.LiveEvent.create(Collections.singletonList(change)));
+
+        // Case and trailing spaces don't count, text that looks like a number is still text
+        Watcher watcher = new Watcher();
+        database.add(LiveDatabase.LiveEvent.create("example", "phone", LivePredicate.eq("userId", "bob"), watcher));
+        assertEquals(Collections.singletonList(Arrays.asList("30", "Bob  ")), watcher.getLast().getRecords());
+        database.add(LiveDatabase.LiveEvent.create("example", "phone", LivePredicate.in("userId",
+                Arrays.asList("1", "02")), watcher));
+        assertEquals(Collections.singletonList(Arrays.asList("10", "1")), watcher.getLast().getRecords());
+
+        // Numbers, and text the database could read as another number, aren't answered from memory
+        database.add(LiveDatabase.LiveEvent.create("example", "phone", LivePredicate.in("userId",
+                Arrays.asList("01", 2.0)), watcher));
+        assertEquals(Collections.singletonList(Arrays.asList("20", "2")), watcher.getLast().getRecords());
+        database.add(LiveDatabase.LiveEvent.create("example", "phone", LivePredicate.eq("id", "010"), watcher));
+        watcher.getLast();
+        assertEquals(1, replica.getHitCount());
+        assertEquals(4, database.queries.size());
+    }
+
+
+    private LiveTableReplica ready(LiveTableReplica replica) throws Exception {
+        return waitFor(replica, LiveTableReplica.State.Ready);
+    }
+
+
+    private LiveTableReplica waitFor(LiveTableReplica replica, LiveTableReplica.State state) throws Exception {
+        int count = 0;
+        while (replica.getState() != state || database.queries.size() < replica.getReloadCount() + 1) {
+            Thread.sleep(20);
+            if (++count > 100)
+                throw new Exception("Replica never became " + state);
+        }
+        return replica;
+    }
+}
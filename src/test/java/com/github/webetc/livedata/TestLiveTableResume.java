@@ -0,0 +1,108 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestLiveTableResume {
+
+    private StubDatabase database;
+    private LiveTable table;
+    private Watcher watcher;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubDatabase();
+        database.addRow("10", "1");
+        table = LiveTable.get("example", "phone", database);
+        watcher = new Watcher();
+        table.addWatcher(watcher, false);
+        for (int i = 1; i <= 3; i++)
+            change(String.valueOf(i));
+        watcher.get(3);
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_missed_changes() throws Exception {
+        Watcher resumed = new Watcher();
+        table.resume(resumed, 1);
+        List<LiveResponse> responses = resumed.get(2);
+        assertEquals(2, responses.get(0).getSequence());
+        assertEquals(3, responses.get(1).getSequence());
+
+        // Later changes arrive like any other watcher
+        change("4");
+        assertEquals(4, resumed.getLast().getSequence());
+        assertEquals(0, database.queries.size());
+        assertEquals(1, database.getResumeCount());
+    }
+
+
+    @org.junit.Test
+    public void test_aged_out() throws Exception {
+        table.setHistorySize(2);
+        Watcher resumed = new Watcher();
+        table.resume(resumed, 0);
+
+        LiveResponse load = resumed.getLast();
+        assertEquals(LiveResponse.Load, load.getAction());
+        assertEquals(3, load.getSequence());
+        assertEquals(1, database.getResumeLoadCount());
+
+        // What is still kept survives the resize
+        Watcher recent = new Watcher();
+        table.resume(recent, 1);
+        assertEquals(2, recent.get(2).size());
+    }
+
+
+    @org.junit.Test
+    public void test_grown_history() throws Exception {
+        table.setHistorySize(2);
+        change("4");
+        change("5");
+        watcher.get(2);
+        table.setHistorySize(10);
+
+        // Growing only has room for more, what was dropped before still needs a load
+        Watcher resumed = new Watcher();
+        table.resume(resumed, 1);
+        assertEquals(LiveResponse.Load, resumed.getLast().getAction());
+
+        Watcher recent = new Watcher();
+        table.resume(recent, 3);
+        List<LiveResponse> responses = recent.get(2);
+        assertEquals(4, responses.get(0).getSequence());
+        assertEquals(5, responses.get(1).getSequence());
+
+        // New changes fill the larger history
+        for (int i = 6; i <= 12; i++)
+            change(String.valueOf(i));
+        watcher.get(7);
+        recent = new Watcher();
+        table.resume(recent, 3);
+        assertEquals(9, recent.get(9).size());
+    }
+
+
+    private void change(String id) {
+        LiveResponse response = new LiveResponse(LiveResponse.Modify, "example", "phone");
+        response.setColumns(Arrays.asList("id", "userId"));
+        response.addRecord(Arrays.asList(id, "1"));
+        database.add(LiveDatabase.LiveEvent.create(Collections.singletonList(response)));
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestStatementResolution {
+
+    private StubTransactionDatabase database;
+    private Watcher watcher;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubTransactionDatabase();
+        watcher = new Watcher();
+        LiveTable.get("example", "phone", database).addWatcher(watcher, false);
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_id_list() throws Exception {
+        database.commit("update phone set userId = 2 where id in (5, 6)");
+        LiveResponse response = watcher.getLast();
+        assertEquals(LiveResponse.Modify, response.getAction());
+        assertEquals(Arrays.asList("id", "userId"), response.getColumns());
+        assertEquals(Arrays.asList(Arrays.asList("5", "2"), Arrays.asList("6", "2")), response.getRecords());
+
+        database.commit("delete from phone where `id` in (7, 8)");
+        response = watcher.getLast();
+        assertEquals(LiveResponse.Delete, response.getAction());
+        assertEquals(2, response.getRecords().size());
+    }
+
+
+    @org.junit.Test
+    public void test_requery() throws Exception {
+        database.commit("update phone set number = '555' where userId = 3");
+        LiveResponse response = watcher.getLast();
+        assertEquals("queried", response.getRecords().get(0).get(0));
+        assertEquals(Arrays.asList("example.phone `userId` = ? [3]"), database.queries);
+    }
+
+
+    @org.junit.Test
+    public void test_computed_values() throws Exception {
+        // Values worked out by the database are read back, a null literal goes out as is
+        database.commit("update phone set userId = userId + 1 where id = 5");
+        assertEquals("queried", watcher.getLast().getRecords().get(0).get(0));
+        assertEquals(Arrays.asList("example.phone `id` = ? [5]"), database.queries);
+
+        database.commit("update phone set userId = null where id = 6");
+        assertEquals(Arrays.asList(Arrays.asList("6", null)), watcher.getLast().getRecords());
+        assertEquals(1, database.queries.size());
+    }
+
+
+    @org.junit.Test
+    public void test_unresolvable() throws Exception {
+        // Updated rows no longer match the where and deleted rows can't be queried
+        database.commit("update phone set userId = 4 where userId = 3", "delete from phone where userId = 4");
+        List<LiveResponse> responses = watcher.get(2);
+        assertEquals(LiveResponse.Error, responses.get(0).getAction());
+        assertEquals(LiveResponse.Error, responses.get(1).getAction());
+        assertEquals(0, database.queries.size());
+    }
+
+
+    @org.junit.Test
+    public void test_compacted() throws Exception {
+        String[] statements = new String[200];
+        for (int i = 0; i < statements.length; i++)
+            statements[i] = "update phone set userId = " + i + " where id = 5";
+        database.commit(statements);
+
+        // Only the last write of the row goes out
+        LiveResponse response = watcher.getLast();
+        assertEquals(Arrays.asList(Arrays.asList("5", "199")), response.getRecords());
+        assertEquals(199, database.getCompactedChangeCount());
+
+        database.commit("update phone set userId = 2 where id = 6", "delete from phone where id = 6");
+        response = watcher.getLast();
+        assertEquals(LiveResponse.Delete, response.getAction());
+        assertEquals(Arrays.asList(Arrays.asList("6")), response.getRecords());
+    }
+}
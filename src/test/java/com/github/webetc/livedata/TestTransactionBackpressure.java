@@ -0,0 +1,72 @@
+package com.github.webetc.livedata;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestTransactionBackpressure {
+
+    private StubTransactionDatabase database;
+
+
+    @Before
+    public void before() throws Exception {
+        database = new StubTransactionDatabase(1, 1);
+    }
+
+
+    @After
+    public void after() throws Exception {
+        database.close();
+    }
+
+
+    @org.junit.Test
+    public void test_reader_blocks() throws Exception {
+        // A watcher stuck on its first response fills the lane, then the assembler queue
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        LiveTable.get("example", "phone", database).addWatcher(response -> {
+            received.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, false);
+
+        AtomicInteger committed = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                database.commit("update phone set userId = " + i + " where id = 5");
+                committed.incrementAndGet();
+            }
+        });
+        reader.start();
+
+        int count = 0;
+        while (database.getSubmitBlockedCount() == 0 && count++ < 250)
+            Thread.sleep(20);
+        assertTrue(database.getSubmitBlockedCount() > 0);
+        assertTrue(reader.isAlive());
+        assertTrue(committed.get() < 10);
+        assertEquals(1, database.getAssembleQueueDepth());
+
+        // Once the watcher lets go everything drains
+        release.countDown();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        count = 0;
+        while (received.get() < 10 && count++ < 250)
+            Thread.sleep(20);
+        assertEquals(10, received.get());
+    }
+}
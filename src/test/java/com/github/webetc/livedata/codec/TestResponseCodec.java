@@ -0,0 +1,101 @@
+package com.github.webetc.livedata.codec;
+
+import com.github.webetc.livedata.LiveResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+
+public class TestResponseCodec {
+
+    private static LiveResponse createResponse(String action, String... values) {
+        LiveResponse response = new LiveResponse(action, "test", "user");
+        response.addColumn("id");
+        response.addColumn("name");
+        for (int i = 0; i < values.length; i += 2)
+            response.addRecord(Arrays.asList(values[i], values[i + 1]));
+        return response;
+    }
+
+
+    @org.junit.Test
+    public void test_binary_round_trip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryResponseWriter writer = new BinaryResponseWriter(out);
+        writer.write(createResponse(LiveResponse.Load, "1", "Ann", "2", null));
+        LiveResponse change = createResponse(LiveResponse.Modify, "3", "Zo\u00eb");
+        change.setSequence(300);
+        writer.write(change);
+        writer.write(new LiveResponse(LiveResponse.Error, "test", "user"));
+
+        // Both responses with columns share a single header
+        assertEquals(2, writer.getHeaderCount());
+
+        BinaryResponseReader reader = new BinaryResponseReader(new ByteArrayInputStream(out.toByteArray()));
+        LiveResponse load = reader.read();
+        assertEquals(LiveResponse.Load, load.getAction());
+        assertEquals(Arrays.asList("id", "name"), load.getColumns());
+        assertEquals(Arrays.asList(Arrays.asList("1", "Ann"), Arrays.asList("2", null)), load.getRecords());
+
+        LiveResponse modify = reader.read();
+        assertEquals("user", modify.getTable());
+        assertEquals(Arrays.asList(Arrays.asList("3", "Zo\u00eb")), modify.getRecords());
+        assertEquals(300, modify.getSequence());
+
+        LiveResponse error = reader.read();
+        assertEquals(LiveResponse.Error, error.getAction());
+        assertNull(error.getColumns());
+        assertNull(error.getRecords());
+        assertNull(reader.read());
+    }
+
+
+    @org.junit.Test
+    public void test_byte_buffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        LiveResponse response = createResponse(LiveResponse.Modify, "1", "Ann");
+        response.setChunk(LiveResponse.ChunkStart);
+        new BinaryResponseWriter(buffer).write(response);
+        buffer.flip();
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        LiveResponse read = new BinaryResponseReader(new ByteArrayInputStream(bytes)).read();
+        assertEquals(LiveResponse.ChunkStart, read.getChunk());
+        assertEquals(Arrays.asList("1", "Ann"), read.getRecords().get(0));
+    }
+
+
+    @org.junit.Test
+    public void test_header_overflow() throws Exception {
+        BinaryResponseWriter writer = new BinaryResponseWriter(ByteBuffer.allocate(8));
+        try {
+            writer.write(createResponse(LiveResponse.Modify, "1", "Ann"));
+            fail("Expected the buffer to overflow");
+        } catch (BufferOverflowException e) {
+            // Header frame was cut short so it must go out again
+        }
+        assertEquals(0, writer.getHeaderCount());
+    }
+
+
+    @org.junit.Test
+    public void test_json_header_once() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonResponseWriter writer = new JsonResponseWriter(out);
+        writer.write(createResponse(LiveResponse.Modify, "1", "Ann"));
+        writer.write(createResponse(LiveResponse.Delete, "1", null));
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("{\"header\":1,\"schema\":\"test\",\"table\":\"user\",\"idColumnIndex\":0,\"columns\":[\"id\",\"name\"]}", lines[0]);
+        assertEquals("{\"action\":\"M\",\"ref\":1,\"records\":[[\"1\",\"Ann\"]]}", lines[1]);
+        assertEquals("{\"action\":\"D\",\"ref\":1,\"records\":[[\"1\",null]]}", lines[2]);
+    }
+}
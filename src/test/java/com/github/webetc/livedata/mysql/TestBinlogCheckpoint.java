@@ -0,0 +1,85 @@
+package com.github.webetc.livedata.mysql;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class TestBinlogCheckpoint {
+
+    private Path file;
+
+
+    @Before
+    public void before() throws Exception {
+        file = Files.createTempFile("checkpoint", ".bin");
+    }
+
+
+    @After
+    public void after() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+
+    @org.junit.Test
+    public void test_reopen() throws Exception {
+        BinlogCheckpoint checkpoint = new BinlogCheckpoint(file);
+        assertNull(checkpoint.getPosition());
+        checkpoint.setForceInterval(60000);
+        checkpoint.save("mysql-bin.000001", 120, null);
+        checkpoint.save("mysql-bin.000002", 4, "3e11fa47-71ca-11e1-9e33-c80aa9429562:1-5");
+
+        // Only the first save forces within the interval, close forces the rest
+        assertEquals(1, checkpoint.getForceCount());
+        checkpoint.close();
+        assertEquals(2, checkpoint.getForceCount());
+
+        BinlogCheckpoint.Position position = new BinlogCheckpoint(file).getPosition();
+        assertEquals("mysql-bin.000002", position.getFilename());
+        assertEquals(4, position.getPosition());
+        assertEquals("3e11fa47-71ca-11e1-9e33-c80aa9429562:1-5", position.getGtidSet());
+    }
+
+
+    @org.junit.Test
+    public void test_quiet_flush() throws Exception {
+        BinlogCheckpoint checkpoint = new BinlogCheckpoint(file);
+        checkpoint.setForceInterval(200);
+        checkpoint.save("mysql-bin.000001", 120, null);
+        checkpoint.save("mysql-bin.000001", 500, null);
+        assertEquals(1, checkpoint.getForceCount());
+
+        // No further saves, the last one is forced once the interval has passed
+        int count = 0;
+        while (checkpoint.getForceCount() < 2) {
+            Thread.sleep(20);
+            if (++count > 100)
+                throw new Exception("Checkpoint never forced");
+        }
+        checkpoint.close();
+        assertEquals(2, checkpoint.getForceCount());
+    }
+
+
+    @org.junit.Test
+    public void test_torn_write() throws Exception {
+        BinlogCheckpoint checkpoint = new BinlogCheckpoint(file);
+        checkpoint.save("mysql-bin.000001", 120, null);
+        checkpoint.save("mysql-bin.000001", 500, null);
+        checkpoint.close();
+
+        // Corrupt the newest slot, the one before it is still there
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(14);
+            raf.write(0x7f);
+        }
+        assertEquals(120, new BinlogCheckpoint(file).getPosition().getPosition());
+    }
+}
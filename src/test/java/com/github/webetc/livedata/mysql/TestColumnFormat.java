@@ -0,0 +1,87 @@
+package com.github.webetc.livedata.mysql;
+
+import java.sql.Time;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class TestColumnFormat {
+
+    @org.junit.Test
+    public void test_enum_and_set() throws Exception {
+        ColumnFormat status = ColumnFormat.parse("status", "enum", "enum('new','it''s','done')");
+        assertEquals("new", status.format(1));
+        assertEquals("it's", status.format(2));
+        assertEquals("", status.format(0));
+
+        ColumnFormat flags = ColumnFormat.parse("flags", "set", "set('a','b','c')");
+        assertEquals("a,c", flags.format(5L));
+        assertEquals("", flags.format(0L));
+    }
+
+
+    @org.junit.Test
+    public void test_booleans() throws Exception {
+        ColumnFormat active = ColumnFormat.parse("active", "tinyint", "tinyint(1)");
+        assertEquals("true", active.format(1));
+        assertEquals("false", active.format(0));
+        assertEquals("5", ColumnFormat.parse("level", "tinyint", "tinyint(4)").format(5));
+
+        BitSet bit = new BitSet();
+        bit.set(0);
+        assertEquals("true", ColumnFormat.parse("flag", "bit", "bit(1)").format(bit));
+    }
+
+
+    @org.junit.Test
+    public void test_unsigned() throws Exception {
+        assertEquals("255", ColumnFormat.parse("a", "tinyint", "tinyint(3) unsigned").format(-1));
+        assertEquals("65535", ColumnFormat.parse("b", "smallint", "smallint(5) unsigned").format(-1));
+        assertEquals("16777215", ColumnFormat.parse("c", "mediumint", "mediumint(8) unsigned").format(-1));
+        assertEquals("4294967295", ColumnFormat.parse("d", "int", "int(10) unsigned").format(-1));
+        assertEquals("18446744073709551615", ColumnFormat.parse("e", "bigint", "bigint(20) unsigned").format(-1L));
+        assertEquals("-1", ColumnFormat.parse("f", "int", "int(11)").format(-1));
+    }
+
+
+    @org.junit.Test
+    public void test_bits() throws Exception {
+        BitSet bits = new BitSet();
+        bits.set(0);
+        bits.set(8);
+        assertEquals("257", ColumnFormat.parse("mask", "bit", "bit(16)").format(bits));
+        assertEquals("0", ColumnFormat.parse("mask", "bit", "bit(16)").format(new BitSet()));
+
+        // Loads see the same column as big endian bytes
+        assertEquals("257", ColumnFormat.formatBits(new byte[]{1, 1}));
+    }
+
+
+    @org.junit.Test
+    public void test_dates() throws Exception {
+        // Row images store wall clock values as if they were UTC, whatever the JVM's zone
+        long millis = LocalDateTime.of(2020, 1, 2, 3, 4, 5).toEpochSecond(ZoneOffset.UTC) * 1000 + 250;
+        assertEquals("2020-01-02 03:04:05.25",
+                ColumnFormat.parse("created", "datetime", "datetime(3)").format(new java.util.Date(millis)));
+        assertEquals("2020-01-02 03:04:05.0",
+                ColumnFormat.parse("created", "datetime", "datetime").format(new java.util.Date(millis - 250)));
+        assertEquals("2020-01-02",
+                ColumnFormat.parse("day", "date", "date").format(new java.sql.Date(millis - 11045250)));
+        assertEquals("03:04:05",
+                ColumnFormat.parse("at", "time", "time").format(new Time(11045000)));
+        assertEquals("2020-01-01", ColumnFormat.parse("year", "year", "year(4)").format(2020));
+    }
+
+
+    @org.junit.Test
+    public void test_plain() throws Exception {
+        ColumnFormat name = ColumnFormat.parse("name", "varchar", "varchar(40)");
+        assertEquals("bob", name.format("bob"));
+        assertEquals("bob", name.format("bob".getBytes("UTF-8")));
+        assertNull(name.format(null));
+    }
+}